@@ -0,0 +1,128 @@
+package auskov;
+
+import java.util.Arrays;
+
+/**
+ * Adaptive replacement cache. Entries seen once and entries seen more than once are kept in separate LRU lists,
+ * keys of entries recently evicted from each list are remembered in ghost lists, and a hit in a ghost list
+ * shifts the target size of the first list towards the list that would have kept the entry.
+ * The capacity is the largest number of entries the tier has held. The ghost keys live in a table of their own,
+ * and the ghost lists link its slots, so remembering a key doesn't allocate.
+ */
+final class ArcEvictionPolicy implements EvictionPolicy {
+    private final SlotList recent;
+    private final SlotList frequent;
+    private final LongEntryTable ghosts = new LongEntryTable();
+    private final SlotList recentGhosts = new SlotList(ghosts.slotCapacity());
+    private final SlotList frequentGhosts = new SlotList(ghosts.slotCapacity());
+    private long[] keys;
+    private int capacity;
+    private int recentTarget;
+
+    ArcEvictionPolicy(int slotCapacity) {
+        recent = new SlotList(slotCapacity);
+        frequent = new SlotList(slotCapacity);
+        keys = new long[slotCapacity];
+    }
+
+    @Override
+    public void ensureCapacity(int slotCapacity) {
+        recent.ensureCapacity(slotCapacity);
+        frequent.ensureCapacity(slotCapacity);
+        if (slotCapacity > keys.length) {
+            keys = Arrays.copyOf(keys, slotCapacity);
+        }
+    }
+
+    @Override
+    public void add(int slot, long key, long weight) {
+        keys[slot] = key;
+        capacity = Math.max(capacity, recent.size() + frequent.size() + 1);
+        int ghost = ghosts.find(key);
+        if (ghost >= 0 && recentGhosts.contains(ghost)) {
+            recentTarget = Math.min(capacity, recentTarget + Math.max(1, frequentGhosts.size() / recentGhosts.size()));
+            forgetGhost(recentGhosts, ghost);
+            frequent.addLast(slot);
+        } else if (ghost >= 0) {
+            recentTarget = Math.max(0, recentTarget - Math.max(1, recentGhosts.size() / frequentGhosts.size()));
+            forgetGhost(frequentGhosts, ghost);
+            frequent.addLast(slot);
+        } else {
+            recent.addLast(slot);
+        }
+    }
+
+    @Override
+    public void access(int slot) {
+        if (recent.contains(slot)) {
+            recent.remove(slot);
+            frequent.addLast(slot);
+        } else if (frequent.contains(slot)) {
+            frequent.moveToLast(slot);
+        }
+    }
+
+    @Override
+    public void setWeight(int slot, long weight) {
+    }
+
+    @Override
+    public void halveWeights() {
+    }
+
+    @Override
+    public int victim() {
+        if (recent.size() > 0 && (recent.size() > recentTarget || frequent.size() == 0)) {
+            return recent.head();
+        }
+        return frequent.head();
+    }
+
+    @Override
+    public void evict(int slot) {
+        if (recent.contains(slot)) {
+            recent.remove(slot);
+            rememberGhost(recentGhosts, keys[slot]);
+        } else if (frequent.contains(slot)) {
+            frequent.remove(slot);
+            rememberGhost(frequentGhosts, keys[slot]);
+        }
+        while (recentGhosts.size() + frequentGhosts.size() > capacity) {
+            SlotList eldest = recentGhosts.size() >= frequentGhosts.size() ? recentGhosts : frequentGhosts;
+            ghosts.removeSlot(eldest.pollFirst());
+        }
+    }
+
+    private void rememberGhost(SlotList ghostList, long key) {
+        int ghost = ghosts.find(key);
+        if (ghost >= 0) {
+            forgetGhost(recentGhosts.contains(ghost) ? recentGhosts : frequentGhosts, ghost);
+        }
+        ghost = ghosts.add(key, null);
+        recentGhosts.ensureCapacity(ghosts.slotCapacity());
+        frequentGhosts.ensureCapacity(ghosts.slotCapacity());
+        ghostList.addLast(ghost);
+    }
+
+    private void forgetGhost(SlotList ghostList, int ghost) {
+        ghostList.remove(ghost);
+        ghosts.removeSlot(ghost);
+    }
+
+    @Override
+    public void remove(int slot) {
+        recent.remove(slot);
+        frequent.remove(slot);
+    }
+
+    @Override
+    public void clear() {
+        recent.clear();
+        frequent.clear();
+        recentGhosts.clear();
+        frequentGhosts.clear();
+        ghosts.clear();
+        capacity = 0;
+        recentTarget = 0;
+    }
+}
@@ -0,0 +1,150 @@
+package auskov;
+
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs cache operations on a pool of I/O threads and completes their futures. At most maxInFlight operations
+ * are queued or running on the threads. With the wait rejection further operations wait in submission order for
+ * an operation to finish, with the fail rejection their futures fail with RejectedExecutionException right away.
+ * An operation never runs on the calling thread.
+ */
+final class AsyncIoExecutor {
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final boolean failWhenBusy;
+    private final Queue<Operation<?>> waiting = new ConcurrentLinkedQueue<>();
+    private final Object idle = new Object();
+    private volatile boolean closing;
+
+    AsyncIoExecutor(int threads, int maxInFlight, boolean failWhenBusy) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "cache-async-io-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        inFlight = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.failWhenBusy = failWhenBusy;
+    }
+
+    /**
+     * Creates the executor configured by cache.async.threads, cache.async.max.in.flight and cache.async.rejection.
+     */
+    static AsyncIoExecutor create(Properties props) throws InvalidPropertiesFormatException {
+        int threads = Integer.parseInt(props.getProperty("cache.async.threads", "4"));
+        int maxInFlight = Integer.parseInt(props.getProperty("cache.async.max.in.flight", "64"));
+        String rejection = props.getProperty("cache.async.rejection", "wait");
+        if (threads <= 0) {
+            throw new InvalidPropertiesFormatException("Number of async I/O threads must be greater than 0!");
+        }
+        if (maxInFlight <= 0) {
+            throw new InvalidPropertiesFormatException("Number of in-flight operations must be greater than 0!");
+        }
+        if (!"wait".equals(rejection) && !"fail".equals(rejection)) {
+            throw new InvalidPropertiesFormatException("Unknown async rejection: " + rejection);
+        }
+        return new AsyncIoExecutor(threads, maxInFlight, "fail".equals(rejection));
+    }
+
+    <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        Operation<T> task = new Operation<>(operation);
+        if (closing) {
+            task.result.completeExceptionally(new IllegalStateException("The cache is closed!"));
+        } else if (failWhenBusy) {
+            if (inFlight.tryAcquire()) {
+                dispatch(task);
+            } else {
+                task.result.completeExceptionally(new RejectedExecutionException(
+                        "Too many cache operations in flight!"));
+            }
+        } else {
+            waiting.add(task);
+            dispatchWaiting();
+        }
+        return task.result;
+    }
+
+    /**
+     * Hands the waiting operations to the threads while there are permits. A permit released after an operation
+     * was queued is always followed by this call, so no operation is left waiting with a free permit.
+     */
+    private void dispatchWaiting() {
+        while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+            Operation<?> task = waiting.poll();
+            if (task == null) {
+                inFlight.release();
+            } else {
+                dispatch(task);
+            }
+        }
+    }
+
+    private void dispatch(Operation<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            task.result.completeExceptionally(new IllegalStateException("The cache is closed!"));
+        }
+    }
+
+    /**
+     * Lets the submitted operations, the waiting ones included, finish and stops the threads.
+     */
+    void close() {
+        closing = true;
+        synchronized (idle) {
+            while (!waiting.isEmpty() || inFlight.availablePermits() < maxInFlight) {
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Operation<?> task;
+        while ((task = waiting.poll()) != null) {
+            task.result.completeExceptionally(new IllegalStateException("The cache is closed!"));
+        }
+    }
+
+    private final class Operation<T> implements Runnable {
+        private final Supplier<T> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        private Operation(Supplier<T> operation) {
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(operation.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            } finally {
+                inFlight.release();
+                dispatchWaiting();
+                if (closing) {
+                    synchronized (idle) {
+                        idle.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,15 +1,30 @@
 package auskov;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.function.LongSupplier;
 
 abstract class CacheTier implements Closeable, AutoCloseable {
     protected LongSupplier timeSupplier;
     protected boolean open;
+    protected volatile CacheTier lowerLevel;
 
     public abstract void put(long key, Serializable object);
 
+    /**
+     * Puts the entry with its deadline. A tier passing the entry on to the lower tier, because the entry doesn't fit,
+     * passes the deadline with it.
+     */
+    public void put(long key, Serializable object, long deadline) {
+        put(key, object);
+        setDeadline(key, deadline);
+    }
+
     public abstract Object get(long key);
 
     public abstract void clear();
@@ -32,6 +47,49 @@ abstract class CacheTier implements Closeable, AutoCloseable {
 
     public abstract long getDeadline(long key);
 
+    /**
+     * Writes the value of the entry to the channel in the format of the serializer and returns the number of bytes
+     * written, or -1 if there is no such entry. Deadlines and weights are handled as by get. Tiers keeping values
+     * serialized override it to write them without deserializing.
+     */
+    public long transferValue(long key, WritableByteChannel target, ValueSerializer serializer) throws IOException {
+        Object value = get(key);
+        if (value == null) {
+            return -1;
+        }
+        return writeFully(ByteBuffer.wrap(serializer.serialize((Serializable) value)), target);
+    }
+
+    /**
+     * Returns a stream reading the value of the entry, or null if there is no such entry. Deadlines and weights
+     * are handled as by get. The value must be a byte array or have been stored from a stream.
+     */
+    public InputStream getStream(long key) {
+        return toStream(key, get(key));
+    }
+
+    static InputStream toStream(long key, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof byte[])) {
+            throw new IllegalArgumentException("The value of the entry " + key + " is not a byte array!");
+        }
+        return new ByteArrayInputStream((byte[]) value);
+    }
+
+    static long writeFully(ByteBuffer data, WritableByteChannel target) throws IOException {
+        long length = data.remaining();
+        while (data.hasRemaining()) {
+            target.write(data);
+        }
+        return length;
+    }
+
+    public void setLowerLevelCache(CacheTier cacheTier) {
+        lowerLevel = cacheTier;
+    }
+
     protected void checkStateIsOpen() {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
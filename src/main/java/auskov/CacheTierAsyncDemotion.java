@@ -0,0 +1,390 @@
+package auskov;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Puts entries into the wrapped tier on a background writer thread. Entries wait in a bounded queue and are served
+ * from it until the writer stores them, so an eviction from the upper tier doesn't pay for the I/O of the lower one.
+ * When the queue is full the back-pressure policy decides whether the caller waits, writes the entry itself
+ * or drops it.
+ */
+public class CacheTierAsyncDemotion extends CacheTier implements Closeable, AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(CacheTierAsyncDemotion.class.getName());
+
+    private static final class PendingEntry {
+        private final Serializable value;
+        private long deadline;
+        private long weight;
+        private boolean valueWritten;
+        private boolean deadlineDirty;
+        private boolean weightDirty;
+
+        private PendingEntry(Serializable value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+
+        private boolean isClean() {
+            return valueWritten && !deadlineDirty && !weightDirty;
+        }
+    }
+
+    private final CacheTier delegate;
+    private final int queueSize;
+    private final String backPressurePolicy;
+    private final LinkedHashMap<Long, PendingEntry> pending = new LinkedHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread writer;
+    private volatile boolean closing;
+
+    CacheTierAsyncDemotion(CacheTier delegate, Properties props) throws InvalidPropertiesFormatException {
+        queueSize = Integer.parseInt(props.getProperty("cache.demotion.queue.size", "1024"));
+        backPressurePolicy = props.getProperty("cache.demotion.queue.policy", "block");
+        if (queueSize <= 0) {
+            throw new InvalidPropertiesFormatException("Size of the demotion queue must be greater than 0!");
+        }
+        if (!"block".equals(backPressurePolicy) && !"caller-runs".equals(backPressurePolicy)
+                && !"drop".equals(backPressurePolicy)) {
+            throw new InvalidPropertiesFormatException("Unknown demotion queue policy: " + backPressurePolicy);
+        }
+
+        this.delegate = delegate;
+        super.open = true;
+        super.timeSupplier = System::currentTimeMillis;
+        writer = new Thread(this::writeEntries, "cache-demotion-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void put(long key, Serializable object) {
+        put(key, object, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void put(long key, Serializable object, long deadline) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            if (!pending.containsKey(key)) {
+                while (pending.size() >= queueSize) {
+                    if ("drop".equals(backPressurePolicy)) {
+                        LOG.fine("The demotion queue is full, the entry " + key + " is dropped");
+                        return;
+                    }
+                    if ("caller-runs".equals(backPressurePolicy)) {
+                        lock.unlock();
+                        try {
+                            delegate.put(key, object, deadline);
+                        } finally {
+                            lock.lock();
+                        }
+                        return;
+                    }
+                    notFull.awaitUninterruptibly();
+                }
+            }
+            pending.put(key, new PendingEntry(object, deadline));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object get(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                if (super.timeSupplier.getAsLong() >= entry.deadline) {
+                    return null;
+                }
+                entry.weight++;
+                entry.weightDirty = true;
+                return entry.value;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.get(key);
+    }
+
+    @Override
+    public long transferValue(long key, WritableByteChannel target, ValueSerializer serializer) throws IOException {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            if (pending.containsKey(key)) {
+                return super.transferValue(key, target, serializer);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.transferValue(key, target, serializer);
+    }
+
+    @Override
+    public InputStream getStream(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            if (pending.containsKey(key)) {
+                return super.getStream(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.getStream(key);
+    }
+
+    @Override
+    public void clear() {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            pending.clear();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        delegate.clear();
+    }
+
+    @Override
+    public void remove(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            if (pending.remove(key) != null) {
+                notFull.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        delegate.remove(key);
+    }
+
+    @Override
+    public void close() {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            closing = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+        super.close();
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            if (pending.get(key) != null) {
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public void incrementWeight(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                entry.weight++;
+                entry.weightDirty = true;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        delegate.incrementWeight(key);
+    }
+
+    @Override
+    public void setWeight(long key, long weight) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                entry.weight = weight;
+                entry.weightDirty = true;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        delegate.setWeight(key, weight);
+    }
+
+    @Override
+    public long getWeight(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                return entry.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.getWeight(key);
+    }
+
+    @Override
+    public void setDeadline(long key, long millis) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                entry.deadline = millis;
+                entry.deadlineDirty = true;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        delegate.setDeadline(key, millis);
+    }
+
+    @Override
+    public long getDeadline(long key) {
+        checkStateIsOpen();
+        lock.lock();
+        try {
+            PendingEntry entry = pending.get(key);
+            if (entry != null) {
+                return entry.deadline;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.getDeadline(key);
+    }
+
+    @Override
+    public void setLowerLevelCache(CacheTier cacheTier) {
+        delegate.setLowerLevelCache(cacheTier);
+    }
+
+    @Override
+    void setCurrentTimeSupplier(LongSupplier timeSupplier) {
+        super.setCurrentTimeSupplier(timeSupplier);
+        delegate.setCurrentTimeSupplier(timeSupplier);
+    }
+
+    int pendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the eldest entry: the value together with its deadline the first time, then only the dirty weight
+     * and deadline. An entry changed during its write goes to the end of the queue, so a hot entry doesn't hold
+     * back the others.
+     */
+    private void writeEntries() {
+        while (true) {
+            long key;
+            PendingEntry entry;
+            boolean writeValue;
+            boolean writeDeadline;
+            boolean writeWeight;
+            long deadline;
+            long weight;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closing) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<Long, PendingEntry>> eldest = pending.entrySet().iterator();
+                Map.Entry<Long, PendingEntry> next = eldest.next();
+                key = next.getKey();
+                entry = next.getValue();
+                writeValue = !entry.valueWritten;
+                writeDeadline = writeValue || entry.deadlineDirty;
+                writeWeight = writeValue || entry.weightDirty;
+                deadline = entry.deadline;
+                weight = entry.weight;
+                entry.valueWritten = true;
+                entry.deadlineDirty = false;
+                entry.weightDirty = false;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                if (writeValue) {
+                    delegate.put(key, entry.value, deadline);
+                } else if (writeDeadline) {
+                    delegate.setDeadline(key, deadline);
+                }
+                if (writeWeight) {
+                    delegate.setWeight(key, weight);
+                }
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed attempt to demote the entry " + key, e);
+            }
+            boolean removed;
+            lock.lock();
+            try {
+                PendingEntry current = pending.get(key);
+                removed = current == null;
+                if (current == entry) {
+                    pending.remove(key);
+                    if (entry.isClean()) {
+                        notFull.signal();
+                    } else {
+                        pending.put(key, entry);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (removed) {
+                delegate.remove(key);
+            }
+        }
+    }
+}
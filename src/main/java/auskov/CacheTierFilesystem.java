@@ -1,251 +1,644 @@
 package auskov;
 
 import java.io.*;
-import java.util.Arrays;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.InvalidPropertiesFormatException;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.ToLongFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
 
 public class CacheTierFilesystem extends CacheTier implements Closeable, AutoCloseable {
     //todo add logging tests
-    //todo add thread safety
     //todo pull common logic to the parent
 
     private static final Logger LOG = Logger.getLogger(CacheTierFilesystem.class.getName());
-
-    private static final String VALUE_FILE_SUFFIX = ".value";
-    private static final String WEIGHT_FILE_SUFFIX = ".weight";
-    private static final String DEADLINE_FILE_SUFFIX = ".deadline";
-
+    private static final String PERSISTENT_DIR = "persistent";
+    private static final String NEXT_KEY_FILE = "next-key";
 
     private long maxInMemoryBytes;
+    private long highWatermarkBytes;
+    private long lowWatermarkBytes;
     private long currentCacheSizeBytes;
     private ToLongFunction<File> fileLengthEvaluator;
-    private String storagePath;
-    private File storageDir;
+    private List<File> storageDirs;
+    private FilesystemEntryStore store;
+    private ValueSerializer serializer;
+    private LongEntryTable index;
+    private LongEntryTable deletions;
+    private BitSet changedWeights;
+    private TimerWheel expirations;
+    private EvictionPolicy policy;
+    private long agingPeriod;
+    private long accessesSinceAging;
+    private boolean persistent;
+    private long nextKey;
+    private AsyncIoExecutor asyncIo;
 
     CacheTierFilesystem(Properties props) throws InvalidPropertiesFormatException {
         maxInMemoryBytes = Long.parseLong(props.getProperty("cache.size.filesystem.bytes"));
+        String evictionPolicy = props.getProperty("cache.eviction.policy.filesystem", "lfu");
+        agingPeriod = Long.parseLong(props.getProperty("cache.weight.aging.filesystem", "0"));
+        int highWatermark = Integer.parseInt(props.getProperty("cache.filesystem.watermark.high.percent", "100"));
+        int lowWatermark = Integer.parseInt(props.getProperty("cache.filesystem.watermark.low.percent", "100"));
+        String engine = props.getProperty("cache.filesystem.engine", "files");
+        long segmentBytes = Long.parseLong(props.getProperty("cache.filesystem.segment.bytes", "16777216"));
+        int chunkBytes = Integer.parseInt(props.getProperty("cache.filesystem.chunk.bytes", "1048576"));
+        String readMode = props.getProperty("cache.filesystem.read.mode", "stream");
+        persistent = "enable".equals(props.getProperty("cache.filesystem.persistent", "disable"));
+        ValueSerializer serializer = ValueSerializer.create(props);
+        String compression = props.getProperty("cache.filesystem.compression", "none");
+        int compressionThreshold = Integer.parseInt(
+                props.getProperty("cache.filesystem.compression.threshold.bytes", "256"));
+        int compressionLevel = Integer.parseInt(props.getProperty("cache.filesystem.compression.level", "1"));
+        int compactionDeadPercent = Integer.parseInt(
+                props.getProperty("cache.filesystem.compaction.dead.percent", "50"));
+        long compactionRate = Long.parseLong(
+                props.getProperty("cache.filesystem.compaction.bytes.per.second", "8388608"));
+        int writeBufferBytes = Integer.parseInt(props.getProperty("cache.filesystem.write.buffer.bytes", "0"));
+        String durability = props.getProperty("cache.filesystem.durability", "none");
+        long syncInterval = Long.parseLong(props.getProperty("cache.filesystem.sync.interval.millis", "1000"));
         if (maxInMemoryBytes <= 0) {
             throw new InvalidPropertiesFormatException("Size of the cache tier must be greater than 0!");
         }
+        if (lowWatermark <= 0 || lowWatermark > highWatermark || highWatermark > 100) {
+            throw new InvalidPropertiesFormatException("Eviction watermarks must satisfy 0 < low <= high <= 100!");
+        }
+        if (!"files".equals(engine) && !"segments".equals(engine)) {
+            throw new InvalidPropertiesFormatException("Unknown filesystem engine: " + engine);
+        }
+        if (!"stream".equals(readMode) && !"mmap".equals(readMode)) {
+            throw new InvalidPropertiesFormatException("Unknown read mode: " + readMode);
+        }
+        if ("mmap".equals(readMode) && !"segments".equals(engine)) {
+            throw new InvalidPropertiesFormatException("The mmap read mode needs the segments engine!");
+        }
+        if (segmentBytes <= 0) {
+            throw new InvalidPropertiesFormatException("Size of a segment must be greater than 0!");
+        }
+        if ("mmap".equals(readMode) && segmentBytes > Integer.MAX_VALUE) {
+            throw new InvalidPropertiesFormatException("Size of a mapped segment can't exceed "
+                    + Integer.MAX_VALUE + " bytes!");
+        }
+        if (chunkBytes <= 0) {
+            throw new InvalidPropertiesFormatException("Size of a chunk must be greater than 0!");
+        }
+        if (!"none".equals(compression) && !"deflate".equals(compression)) {
+            throw new InvalidPropertiesFormatException("Unknown compression: " + compression);
+        }
+        if (compressionThreshold < 0) {
+            throw new InvalidPropertiesFormatException("Compression threshold can't be negative!");
+        }
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new InvalidPropertiesFormatException("Compression level must be between 1 and 9!");
+        }
+        if (compactionDeadPercent < 0 || compactionDeadPercent > 100) {
+            throw new InvalidPropertiesFormatException("Compaction threshold must be between 0 and 100 percent!");
+        }
+        if (compactionRate < 0) {
+            throw new InvalidPropertiesFormatException("Compaction rate can't be negative!");
+        }
+        if (writeBufferBytes < 0) {
+            throw new InvalidPropertiesFormatException("Write buffer size can't be negative!");
+        }
+        if (!"none".equals(durability) && !"batch".equals(durability) && !"periodic".equals(durability)) {
+            throw new InvalidPropertiesFormatException("Unknown durability: " + durability);
+        }
+        if (syncInterval <= 0) {
+            throw new InvalidPropertiesFormatException("Sync interval must be greater than 0!");
+        }
+        if ((writeBufferBytes > 0 || !"none".equals(durability)) && !"segments".equals(engine)) {
+            throw new InvalidPropertiesFormatException("Write-behind needs the segments engine!");
+        }
+        if (agingPeriod < 0) {
+            throw new InvalidPropertiesFormatException("Weight aging period can't be negative!");
+        }
         if (props.get("cache.filesystem.storage.path") == null) {
             throw new InvalidPropertiesFormatException("Storage path can't be null!");
         }
-        if (!new File(props.getProperty("cache.filesystem.storage.path")).isDirectory()) {
-            throw new InvalidPropertiesFormatException("Cache storage path is not a directory!");
+        List<File> storagePaths = new ArrayList<>();
+        for (String path : props.getProperty("cache.filesystem.storage.path").split(",")) {
+            File storagePath = new File(path.trim());
+            if (!storagePath.isDirectory()) {
+                throw new InvalidPropertiesFormatException("Cache storage path is not a directory!");
+            }
+            if (storagePaths.contains(storagePath.getAbsoluteFile())) {
+                throw new InvalidPropertiesFormatException("Cache storage paths must be different!");
+            }
+            storagePaths.add(storagePath.getAbsoluteFile());
         }
+        asyncIo = AsyncIoExecutor.create(props);
+
+        highWatermarkBytes = maxInMemoryBytes / 100 * highWatermark + maxInMemoryBytes % 100 * highWatermark / 100;
+        lowWatermarkBytes = maxInMemoryBytes / 100 * lowWatermark + maxInMemoryBytes % 100 * lowWatermark / 100;
 
         super.open = true;
         super.timeSupplier = System::currentTimeMillis;
         fileLengthEvaluator = (file -> file.length());
-        storagePath = props.getProperty("cache.filesystem.storage.path") +
-                "/second_tier_cache/" + Thread.currentThread().getId() + "_" + super.timeSupplier.getAsLong();
-        storageDir = new File(storagePath);
-        if (!storageDir.exists()) {
-            storageDir.mkdirs();
+        String storageDirName = persistent
+                ? PERSISTENT_DIR : Thread.currentThread().getId() + "_" + super.timeSupplier.getAsLong();
+        if ("deflate".equals(compression)) {
+            serializer = new CompressingValueSerializer(serializer, compressionThreshold, compressionLevel);
+        }
+        storageDirs = new ArrayList<>();
+        List<FilesystemEntryStore> stripes = new ArrayList<>();
+        for (File storagePath : storagePaths) {
+            File storageDir = new File(storagePath, "second_tier_cache/" + storageDirName);
+            if (!storageDir.exists()) {
+                storageDir.mkdirs();
+            }
+            storageDirs.add(storageDir);
+            stripes.add("segments".equals(engine)
+                    ? new SegmentEntryStore(storageDir, segmentBytes, serializer, "mmap".equals(readMode),
+                    compactionDeadPercent, compactionRate, writeBufferBytes, durability, syncInterval,
+                    chunkBytes)
+                    : new FileEntryStore(storageDir, serializer));
         }
+        store = new StripedEntryStore(stripes);
+        this.serializer = serializer;
         currentCacheSizeBytes = 0;
+        index = new LongEntryTable();
+        deletions = new LongEntryTable();
+        changedWeights = new BitSet();
+        expirations = new TimerWheel(index.slotCapacity(), super.timeSupplier.getAsLong());
+        policy = EvictionPolicy.create(evictionPolicy, index.slotCapacity());
+        if (persistent) {
+            restore();
+        }
+    }
+
+    /**
+     * Rebuilds the index from the entries a previous tier left in the persistent directory, dropping the expired ones.
+     */
+    private void restore() {
+        long now = super.timeSupplier.getAsLong();
+        List<Long> expiredKeys = new ArrayList<>();
+        store.restore(key -> {
+            nextKey = Math.max(nextKey, key + 1);
+            long deadline = store.readDeadline(key);
+            if (now >= deadline) {
+                expiredKeys.add(key);
+                return;
+            }
+            long weight = store.readWeight(key);
+            long entrySize = store.entrySize(key, fileLengthEvaluator);
+            int slot = index.add(key, null);
+            index.setSize(slot, entrySize);
+            index.setWeight(slot, weight);
+            index.setDeadline(slot, deadline);
+            expirations.ensureCapacity(index.slotCapacity());
+            policy.ensureCapacity(index.slotCapacity());
+            policy.add(slot, key, weight);
+            expirations.schedule(slot, deadline);
+            currentCacheSizeBytes += entrySize;
+        });
+        for (long key : expiredKeys) {
+            store.delete(key);
+        }
+        File nextKeyFile = new File(storageDirs.get(0), NEXT_KEY_FILE);
+        if (nextKeyFile.exists()) {
+            try (DataInputStream stream = new DataInputStream(new FileInputStream(nextKeyFile))) {
+                nextKey = Math.max(nextKey, stream.readLong());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to read the next key", e);
+            }
+        }
+        if (currentCacheSizeBytes > highWatermarkBytes) {
+            List<Long> deletedKeys = new ArrayList<>();
+            evictBatch(deletedKeys);
+            deleteEntries(deletedKeys);
+        }
     }
 
+    /**
+     * Writes the value holding only the lock of its stripe, so puts to different stripes run in parallel.
+     */
     @Override
     public void put(long key, Serializable object) {
-        checkStateIsOpen();
-        writeObjectToFile(object, key + VALUE_FILE_SUFFIX);
-        writeLongToFile(0L, key + WEIGHT_FILE_SUFFIX);
-        writeLongToFile(Long.MAX_VALUE, key + DEADLINE_FILE_SUFFIX);
-        long currentEntrySize = getEntrySize(key);
+        forgetPreviousEntry(key);
+        store.write(key, object);
+        addEntry(key);
+    }
+
+    /**
+     * Stores exactly length bytes of the stream as a byte array value without holding it in memory. A value
+     * larger than the tier is skipped before anything is read, like put skips it. The stream is read holding
+     * only the lock of its stripe.
+     *
+     * @throws IOException if the stream fails or doesn't give exactly the length, nothing is stored then
+     */
+    public void putStream(long key, InputStream stream, long length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length of a value can't be negative!");
+        }
+        synchronized (this) {
+            checkStateIsOpen();
+            if (length > maxInMemoryBytes) {
+                LOG.fine("The value of the entry " + key + " is larger than the cache tier");
+                return;
+            }
+        }
+        forgetPreviousEntry(key);
+        store.writeStream(key, stream, length);
+        addEntry(key);
+    }
+
+    /**
+     * Removes the entry the new value replaces and waits until an earlier deletion of the key is done,
+     * so it can't delete the new value.
+     */
+    private void forgetPreviousEntry(long key) {
+        List<Long> deletedKeys = new ArrayList<>();
+        synchronized (this) {
+            checkStateIsOpen();
+            int slot = index.find(key);
+            if (slot >= 0) {
+                removeSlot(slot, deletedKeys);
+            }
+        }
+        deleteEntries(deletedKeys);
+        synchronized (this) {
+            while (deletions.find(key) >= 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a value stored by putStream chunk by chunk, a byte array value is read from memory.
+     */
+    @Override
+    public InputStream getStream(long key) {
+        if (!findForRead(key)) {
+            return null;
+        }
+        InputStream stream = store.readStream(key);
+        return stream != null ? stream : toStream(key, store.readValue(key));
+    }
+
+    /**
+     * Measures the written entry and deletes it if it is larger than the tier before taking the monitor,
+     * then indexes it and evicts under the monitor. The evicted entries are deleted from the store after
+     * the monitor is released.
+     */
+    private void addEntry(long key) {
+        if (!store.contains(key)) {
+            return;
+        }
+        long currentEntrySize = store.entrySize(key, fileLengthEvaluator);
         if (currentEntrySize > maxInMemoryBytes) {
-            remove(key);
+            store.delete(key);
+            return;
         }
-        currentCacheSizeBytes += currentEntrySize;
+        List<Long> deletedKeys = new ArrayList<>();
+        synchronized (this) {
+            int previous = index.find(key);
+            if (previous >= 0) {
+                forgetSlot(previous);
+            }
+            int slot = index.add(key, null);
+            index.setSize(slot, currentEntrySize);
+            expirations.ensureCapacity(index.slotCapacity());
+            policy.ensureCapacity(index.slotCapacity());
+            policy.add(slot, key, 0L);
+            currentCacheSizeBytes += currentEntrySize;
 
-        while (currentCacheSizeBytes > maxInMemoryBytes) {
-            removeAllExpiredEntries();
-            if (currentCacheSizeBytes > maxInMemoryBytes) {
-                evictTheColdestEntry();
+            if (currentCacheSizeBytes > highWatermarkBytes) {
+                removeAllExpiredEntries(deletedKeys);
+                if (currentCacheSizeBytes > lowWatermarkBytes) {
+                    evictBatch(deletedKeys);
+                }
             }
         }
+        deleteEntries(deletedKeys);
     }
 
-    private void removeAllExpiredEntries() {
-        Arrays.stream(storageDir.list())
-                .filter(fileName -> fileName.contains(VALUE_FILE_SUFFIX))
-                .map(fileName -> fileName.substring(0, fileName.indexOf(VALUE_FILE_SUFFIX)))
-                .mapToLong(foundStringKey -> Long.parseLong(foundStringKey))
-                .forEach(foundKey -> {
-                    if (getDeadline(foundKey) <= super.timeSupplier.getAsLong()) {
-                        remove(foundKey);
-                    }
-                });
+    private void removeAllExpiredEntries(List<Long> deletedKeys) {
+        expirations.advance(super.timeSupplier.getAsLong(), slot -> removeSlot(slot, deletedKeys));
     }
 
-    private void evictTheColdestEntry() {
-        remove(Arrays.stream(storageDir.list())
-                .filter(fileName -> fileName.contains(VALUE_FILE_SUFFIX))
-                .map(fileName -> fileName.substring(0, fileName.indexOf(VALUE_FILE_SUFFIX)))
-                .mapToLong(foundStringKey -> Long.parseLong(foundStringKey))
-                .min()
-                .getAsLong());
+    /**
+     * Picks victims until the tier would get below the low watermark and drops them from the index,
+     * the caller deletes them from the store in one sweep.
+     */
+    private void evictBatch(List<Long> deletedKeys) {
+        List<Integer> victims = new ArrayList<>();
+        long remainingBytes = currentCacheSizeBytes;
+        while (remainingBytes > lowWatermarkBytes) {
+            int coldest = policy.victim();
+            if (coldest < 0) {
+                break;
+            }
+            policy.evict(coldest);
+            victims.add(coldest);
+            remainingBytes -= index.size(coldest);
+        }
+        for (int slot : victims) {
+            removeSlot(slot, deletedKeys);
+        }
     }
 
+    /**
+     * Reads the value holding only the lock of its stripe. An entry removed in the meantime is reported as absent.
+     */
     @Override
     public Object get(long key) {
-        checkStateIsOpen();
-        if (!containsKey(key)) {
+        if (!findForRead(key)) {
             return null;
         }
-        if (super.timeSupplier.getAsLong() >= getDeadline(key)) {
-            remove(key);
-            return null;
+        return store.readValue(key);
+    }
+
+    /**
+     * Counts the access and returns true if the tier has the entry, an expired entry is removed.
+     */
+    private boolean findForRead(long key) {
+        List<Long> deletedKeys = new ArrayList<>();
+        synchronized (this) {
+            checkStateIsOpen();
+            int slot = index.find(key);
+            if (slot < 0) {
+                return false;
+            }
+            if (super.timeSupplier.getAsLong() < index.deadline(slot)) {
+                recordAccess(slot);
+                return true;
+            }
+            removeSlot(slot, deletedKeys);
         }
-        incrementWeight(key);
-        return readObjectFromFile(key + VALUE_FILE_SUFFIX);
+        deleteEntries(deletedKeys);
+        return false;
     }
 
+    /**
+     * Lets the store transfer the stored bytes to the channel, without copying them to the heap, if they are
+     * in the format of the serializer, that is the serializer of the tier has the same format and no compression.
+     */
     @Override
-    public void clear() {
-        checkStateIsOpen();
-        if (storageDir.exists() && storageDir.isDirectory()) {
-            Arrays.stream(storageDir.list())
-                    .filter(fileName -> !fileName.startsWith("."))
-                    .forEach(fileName -> {
-                        File f = new File(storageDir, fileName);
-                        f.delete();
-                    });
-            currentCacheSizeBytes = 0;
+    public long transferValue(long key, WritableByteChannel target, ValueSerializer serializer) throws IOException {
+        if (!this.serializer.hasSameFormat(serializer)) {
+            return super.transferValue(key, target, serializer);
         }
+        if (!findForRead(key)) {
+            return -1;
+        }
+        return store.transferValue(key, target);
     }
 
     @Override
-    public void remove(long key) {
+    public synchronized void clear() {
         checkStateIsOpen();
-        long entrySize = getEntrySize(key);
-        if (storageDir.exists() && storageDir.isDirectory()) {
-            Arrays.stream(storageDir.list())
-                    .filter(fileName -> fileName.startsWith("" + key))
-                    .forEach(fileName -> {
-                        File f = new File(storageDir, fileName);
-                        f.delete();
-                    });
-            currentCacheSizeBytes -= entrySize;
+        store.clear();
+        currentCacheSizeBytes = 0;
+        index.clear();
+        changedWeights.clear();
+        expirations.clear();
+        policy.clear();
+    }
+
+    @Override
+    public void remove(long key) {
+        List<Long> deletedKeys = new ArrayList<>();
+        synchronized (this) {
+            checkStateIsOpen();
+            int slot = index.find(key);
+            if (slot >= 0) {
+                removeSlot(slot, deletedKeys);
+            }
         }
+        deleteEntries(deletedKeys);
+    }
+
+    /**
+     * Reads the value on an I/O thread of the tier, see AsyncIoExecutor for the limit of operations in flight.
+     */
+    public CompletableFuture<Object> getAsync(long key) {
+        return asyncIo.submit(() -> get(key));
+    }
+
+    /**
+     * Writes the value on an I/O thread of the tier, the future completes when the value is stored.
+     */
+    public CompletableFuture<Void> putAsync(long key, Serializable object) {
+        return asyncIo.submit(() -> {
+            put(key, object);
+            return null;
+        });
     }
 
+    /**
+     * Removes the entry and deletes its value on an I/O thread of the tier.
+     */
+    public CompletableFuture<Void> removeAsync(long key) {
+        return asyncIo.submit(() -> {
+            remove(key);
+            return null;
+        });
+    }
+
+    /**
+     * Lets the asynchronous operations finish before closing, they need the monitor of the tier.
+     */
     @Override
     public void close() {
+        asyncIo.close();
+        closeStore();
+    }
+
+    private synchronized void closeStore() {
         checkStateIsOpen();
-        clear();
-        storageDir.delete();
+        while (deletions.size() > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (persistent) {
+            writeChangedWeights();
+            store.close();
+            try (DataOutputStream stream = new DataOutputStream(
+                    new FileOutputStream(new File(storageDirs.get(0), NEXT_KEY_FILE)))) {
+                stream.writeLong(nextKey);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to write the next key", e);
+            }
+        } else {
+            clear();
+            store.close();
+            for (File storageDir : storageDirs) {
+                storageDir.delete();
+            }
+        }
         super.close();
     }
 
     @Override
-    public boolean containsKey(long key) {
+    public synchronized boolean containsKey(long key) {
         checkStateIsOpen();
-        File valueFile = new File(storageDir, key + VALUE_FILE_SUFFIX);
-        return valueFile.exists();
+        return index.find(key) >= 0;
     }
 
     @Override
-    public void incrementWeight(long key) {
+    public synchronized void incrementWeight(long key) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            long currentWeight = getWeight(key);
-            writeLongToFile(++currentWeight, key + WEIGHT_FILE_SUFFIX);
+        int slot = index.find(key);
+        if (slot >= 0) {
+            recordAccess(slot);
         }
     }
 
     @Override
-    public void setWeight(long key, long weight) {
+    public synchronized void setWeight(long key, long weight) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            writeLongToFile(weight, key + WEIGHT_FILE_SUFFIX);
+        int slot = index.find(key);
+        if (slot >= 0) {
+            index.setWeight(slot, weight);
+            changedWeights.set(slot);
+            policy.setWeight(slot, weight);
         }
     }
 
     @Override
-    public long getWeight(long key) {
+    public synchronized long getWeight(long key) {
         checkStateIsOpen();
-        return readLongFromFile(key + WEIGHT_FILE_SUFFIX);
+        int slot = index.find(key);
+        return slot >= 0 ? index.weight(slot) : 0;
     }
 
+    /**
+     * Updates the index under the monitor and writes the deadline to the store after releasing it.
+     */
     @Override
     public void setDeadline(long key, long millis) {
-        checkStateIsOpen();
-        if (containsKey(key)) {
-            writeLongToFile(millis, key + DEADLINE_FILE_SUFFIX);
+        synchronized (this) {
+            checkStateIsOpen();
+            int slot = index.find(key);
+            if (slot < 0) {
+                return;
+            }
+            index.setDeadline(slot, millis);
+            expirations.schedule(slot, millis);
         }
+        store.writeDeadline(key, millis);
     }
 
     @Override
-    public long getDeadline(long key) {
+    public synchronized long getDeadline(long key) {
         checkStateIsOpen();
-        return readLongFromFile(key + DEADLINE_FILE_SUFFIX);
+        int slot = index.find(key);
+        return slot >= 0 ? index.deadline(slot) : 0;
     }
 
-    public long getEntrySize(long key) {
-        checkStateIsOpen();
-        if (containsKey(key)) {
-            File value = new File(storageDir, key + VALUE_FILE_SUFFIX);
-            File weight = new File(storageDir, key + WEIGHT_FILE_SUFFIX);
-            File deadline = new File(storageDir, key + DEADLINE_FILE_SUFFIX);
-            return fileLengthEvaluator.applyAsLong(value) + fileLengthEvaluator.applyAsLong(weight) + fileLengthEvaluator.applyAsLong(deadline);
+    /**
+     * Counts the access in the index only, the changed weights are written to the store when the tier is closed.
+     */
+    private void recordAccess(int slot) {
+        index.setWeight(slot, index.weight(slot) + 1);
+        changedWeights.set(slot);
+        policy.access(slot);
+        if (agingPeriod > 0 && ++accessesSinceAging >= agingPeriod) {
+            halveWeights();
         }
-        return 0;
     }
 
-    void setFileLenghtEvaluator(ToLongFunction<File> fileLenghtEvaluator) {
-        checkStateIsOpen();
-        this.fileLengthEvaluator = fileLenghtEvaluator;
+    /**
+     * Halves the weights in the index only, they reach the store with the other changed weights on close.
+     */
+    private void halveWeights() {
+        index.halveWeights();
+        changedWeights.set(0, index.slotLimit());
+        policy.halveWeights();
+        accessesSinceAging = 0;
     }
 
-    private void writeObjectToFile(Serializable object, String fileName) {
-        File file = new File(storageDir, fileName);
-        try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file))) {
-            stream.writeObject(object);
-            stream.flush();
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed attempt to write the object to the file " + fileName, e);
+    private void writeChangedWeights() {
+        for (int slot = changedWeights.nextSetBit(0); slot >= 0; slot = changedWeights.nextSetBit(slot + 1)) {
+            if (index.isUsed(slot)) {
+                store.writeWeight(index.key(slot), index.weight(slot));
+            }
         }
+        changedWeights.clear();
     }
 
-    private void writeLongToFile(long value, String fileName) {
-        File file = new File(storageDir, fileName);
-        try (ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file))) {
-            stream.writeLong(value);
-            stream.flush();
-        } catch (Exception e) {
-            LOG.log(Level.WARNING, "Failed attempt to write the long value to the file " + fileName, e);
-        }
+    /**
+     * Drops the slot from the index and marks its key as being deleted. The caller deletes the collected keys
+     * with deleteEntries after releasing the monitor.
+     */
+    private void removeSlot(int slot, List<Long> deletedKeys) {
+        long key = index.key(slot);
+        forgetSlot(slot);
+        deletions.add(key, null);
+        deletedKeys.add(key);
     }
 
-    private Object readObjectFromFile(String fileName) {
-        File valueFile = new File(storageDir, fileName);
-        Object object = null;
-        try (ObjectInputStream valueInputStream = new ObjectInputStream(new FileInputStream(valueFile))) {
-            object = valueInputStream.readObject();
-        } catch (FileNotFoundException e) {
-            LOG.fine("The file " + fileName + "does not exist");
-        } catch (IOException | ClassNotFoundException e) {
-            LOG.log(Level.WARNING, "Failed attempt to read the object from the file " + fileName, e);
+    private void deleteEntries(List<Long> deletedKeys) {
+        if (deletedKeys.isEmpty()) {
+            return;
+        }
+        for (long key : deletedKeys) {
+            store.delete(key);
+        }
+        synchronized (this) {
+            for (long key : deletedKeys) {
+                deletions.removeSlot(deletions.find(key));
+            }
+            notifyAll();
         }
-        return object;
     }
 
-    private long readLongFromFile(String fileName) {
-        File file = new File(storageDir, fileName);
-        long value = 0;
-        try (ObjectInputStream valueInputStream = new ObjectInputStream(new FileInputStream(file))) {
-            value = valueInputStream.readLong();
-        } catch (FileNotFoundException e) {
-            LOG.fine("The file " + fileName + "does not exist");
-        } catch (IOException e) {
-            LOG.log(Level.WARNING, "Failed attempt to read the long value from the file " + fileName, e);
-        }
-        return value;
+    /**
+     * Drops the slot from the index, leaving the entry in the store.
+     */
+    private void forgetSlot(int slot) {
+        currentCacheSizeBytes -= index.size(slot);
+        changedWeights.clear(slot);
+        expirations.cancel(slot);
+        policy.remove(slot);
+        index.removeSlot(slot);
+    }
+
+    /**
+     * Returns the key the cache should hand out next, so a restored cache doesn't reuse the keys of the entries
+     * it has restored or handed out before the restart.
+     */
+    synchronized long getNextKey() {
+        return nextKey;
+    }
+
+    synchronized void setNextKey(long nextKey) {
+        this.nextKey = nextKey;
+    }
+
+    public synchronized long getEntrySize(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        return slot >= 0 ? index.size(slot) : 0;
     }
 
+    /**
+     * Replaces the evaluator and measures the stored entries with it again.
+     */
+    synchronized void setFileLenghtEvaluator(ToLongFunction<File> fileLenghtEvaluator) {
+        checkStateIsOpen();
+        this.fileLengthEvaluator = fileLenghtEvaluator;
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (index.isUsed(slot)) {
+                long entrySize = store.entrySize(index.key(slot), fileLenghtEvaluator);
+                currentCacheSizeBytes += entrySize - index.size(slot);
+                index.setSize(slot, entrySize);
+            }
+        }
+    }
 }
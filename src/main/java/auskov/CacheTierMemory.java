@@ -2,160 +2,459 @@ package auskov;
 
 import java.io.Closeable;
 import java.io.Serializable;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.InvalidPropertiesFormatException;
-import java.util.Map;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 
 public class CacheTierMemory extends CacheTier implements Closeable, AutoCloseable {
-    //todo add thread safety
     //todo pull common logic to the parent
 
-    private Map<Long, Serializable> values;
-    private Map<Long, Long> weights;
-    private Map<Long, Long> deadlines;
+    private static final class Demotion {
+        private final long key;
+        private final Serializable value;
+        private final long deadline;
+        private final long weight;
+
+        private Demotion(long key, Serializable value, long deadline, long weight) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+            this.weight = weight;
+        }
+    }
+
+    private static final int INITIAL_TABLE_SIZE = 1024;
+
+    private MemoryTierSegment[] segments;
+    private int segmentMask;
+    private AtomicLong entriesCount;
+    private AtomicLong bytesCount;
+    private ConcurrentHashMap<Long, Demotion> demotions;
     private long maxInMemoryEntries;
-    private CacheTier lowerLevel;
+    private long maxInMemoryBytes;
+    private long highWatermarkEntries;
+    private long highWatermarkBytes;
+    private long lowWatermarkEntries;
+    private long lowWatermarkBytes;
+    private volatile ToLongFunction<Serializable> sizeEstimator;
 
     CacheTierMemory(Properties props) throws InvalidPropertiesFormatException {
-        maxInMemoryEntries = Long.parseLong(props.getProperty("cache.size.in.memory.entries"));
+        String maxEntriesProperty = props.getProperty("cache.size.in.memory.entries");
+        String maxBytesProperty = props.getProperty("cache.size.in.memory.bytes");
+        maxInMemoryEntries = maxEntriesProperty == null && maxBytesProperty != null
+                ? Long.MAX_VALUE : Long.parseLong(maxEntriesProperty);
+        maxInMemoryBytes = maxBytesProperty == null ? Long.MAX_VALUE : Long.parseLong(maxBytesProperty);
+        int concurrencyLevel = Integer.parseInt(props.getProperty("cache.memory.concurrency.level",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        String admission = props.getProperty("cache.memory.admission", "none");
+        int windowPercent = Integer.parseInt(props.getProperty("cache.memory.admission.window.percent", "1"));
+        String evictionPolicy = props.getProperty("cache.eviction.policy.memory", "lfu");
+        long agingPeriod = Long.parseLong(props.getProperty("cache.weight.aging.memory", "0"));
+        int highWatermark = Integer.parseInt(props.getProperty("cache.memory.watermark.high.percent", "100"));
+        int lowWatermark = Integer.parseInt(props.getProperty("cache.memory.watermark.low.percent", "100"));
 
-        if (maxInMemoryEntries <= 0) {
+        if (maxInMemoryEntries <= 0 || maxInMemoryBytes <= 0) {
             throw new InvalidPropertiesFormatException("Size of the cache tier must be greater than 0!");
         }
+        if (concurrencyLevel <= 0) {
+            throw new InvalidPropertiesFormatException("Concurrency level must be greater than 0!");
+        }
+        if (lowWatermark <= 0 || lowWatermark > highWatermark || highWatermark > 100) {
+            throw new InvalidPropertiesFormatException("Eviction watermarks must satisfy 0 < low <= high <= 100!");
+        }
+        if (agingPeriod < 0) {
+            throw new InvalidPropertiesFormatException("Weight aging period can't be negative!");
+        }
+        if (!"none".equals(admission) && !"tinylfu".equals(admission)) {
+            throw new InvalidPropertiesFormatException("Unknown admission policy: " + admission);
+        }
+        if (windowPercent <= 0 || windowPercent >= 100) {
+            throw new InvalidPropertiesFormatException("Admission window must be between 1 and 99 percent!");
+        }
+
+        highWatermarkEntries = watermark(maxInMemoryEntries, highWatermark);
+        highWatermarkBytes = watermark(maxInMemoryBytes, highWatermark);
+        lowWatermarkEntries = watermark(maxInMemoryEntries, lowWatermark);
+        lowWatermarkBytes = watermark(maxInMemoryBytes, lowWatermark);
 
-        values = new ConcurrentHashMap<>();
-        weights = new ConcurrentHashMap<>();
-        deadlines = new ConcurrentHashMap<>();
         super.open = true;
         super.timeSupplier = System::currentTimeMillis;
+        int segmentsCount = Integer.highestOneBit(concurrencyLevel - 1) << 1;
+        segmentsCount = Math.max(1, segmentsCount);
+        int expectedSegmentSize = (int) Math.min(maxInMemoryEntries / segmentsCount + 1, INITIAL_TABLE_SIZE);
+        int segmentAgingPeriod = agingPeriod == 0 ? 0 : (int) Math.min(Integer.MAX_VALUE,
+                Math.max(1, agingPeriod / segmentsCount));
+        segments = new MemoryTierSegment[segmentsCount];
+        for (int i = 0; i < segmentsCount; i++) {
+            segments[i] = new MemoryTierSegment(expectedSegmentSize, super.timeSupplier.getAsLong(),
+                    "tinylfu".equals(admission) ? windowPercent : 0,
+                    EvictionPolicy.create(evictionPolicy, expectedSegmentSize), segmentAgingPeriod);
+        }
+        segmentMask = segmentsCount - 1;
+        entriesCount = new AtomicLong();
+        bytesCount = new AtomicLong();
+        demotions = new ConcurrentHashMap<>();
+        sizeEstimator = createSizeEstimator(props.getProperty("cache.memory.size.estimator", "serialized"));
+    }
+
+    private static long watermark(long limit, int percent) {
+        return limit == Long.MAX_VALUE ? limit : limit / 100 * percent + limit % 100 * percent / 100;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ToLongFunction<Serializable> createSizeEstimator(String name) throws InvalidPropertiesFormatException {
+        if ("serialized".equals(name)) {
+            return new SerializedSizeEstimator();
+        }
+        try {
+            return (ToLongFunction<Serializable>) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new InvalidPropertiesFormatException("Unknown size estimator: " + name);
+        }
     }
 
     @Override
     public void put(long key, Serializable object) {
+        put(key, object, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sets the deadline under the lock of the segment, so the entry can't be demoted without it. The evicted
+     * entries are demoted after the lock is released.
+     */
+    @Override
+    public void put(long key, Serializable object, long deadline) {
         checkStateIsOpen();
-        while (values.size() >= maxInMemoryEntries) {
-            removeAllExpiredEntries();
-            if (values.size() >= maxInMemoryEntries) {
-                evictTheColdestEntry();
+        long entrySize = maxInMemoryBytes == Long.MAX_VALUE ? 0 : sizeEstimator.applyAsLong(object);
+        if (entrySize > maxInMemoryBytes) {
+            remove(key);
+            CacheTier lower = lowerLevel;
+            if (lower != null) {
+                lower.put(key, object, deadline);
+            }
+            return;
+        }
+        MemoryTierSegment segment = segmentFor(key);
+        List<Demotion> evicted = new ArrayList<>();
+        segment.lock().lock();
+        try {
+            int existing = segment.find(key);
+            if (existing >= 0) {
+                removeSlot(segment, existing);
+            }
+            while (!reserve(entrySize)) {
+                makeRoom(segment, entrySize, evicted);
+            }
+            int slot = segment.add(key, object, entrySize);
+            segment.setDeadline(slot, deadline);
+            if (entriesCount.get() > highWatermarkEntries || bytesCount.get() > highWatermarkBytes) {
+                evictBatch(segment, 0, 0, evicted);
             }
+        } finally {
+            segment.lock().unlock();
         }
+        demote(evicted);
+    }
 
-        weights.put(key, 0L);
-        values.put(key, object);
-        deadlines.put(key, Long.MAX_VALUE);
+    private boolean reserve(long entrySize) {
+        long count;
+        do {
+            count = entriesCount.get();
+            if (count >= maxInMemoryEntries) {
+                return false;
+            }
+        } while (!entriesCount.compareAndSet(count, count + 1));
+        long bytes;
+        do {
+            bytes = bytesCount.get();
+            if (bytes + entrySize > maxInMemoryBytes) {
+                entriesCount.decrementAndGet();
+                return false;
+            }
+        } while (!bytesCount.compareAndSet(bytes, bytes + entrySize));
+        return true;
     }
 
-    private void removeAllExpiredEntries() {
-        deadlines.entrySet().stream()
-                .filter(entry -> entry.getValue() <= super.timeSupplier.getAsLong())
-                .forEach(entry -> remove(entry.getKey()));
+    private boolean hasRoomFor(long entrySize) {
+        return entriesCount.get() < maxInMemoryEntries && bytesCount.get() + entrySize <= maxInMemoryBytes;
     }
 
-    private void evictTheColdestEntry() {
-        long key = weights.entrySet().stream()
-                .min(Comparator.comparing(entry -> entry.getValue()))
-                .get()
-                .getKey();
-        if(lowerLevel != null) {
-            lowerLevel.put(key, values.get(key));
-            lowerLevel.setDeadline(key, weights.get(key));
-            lowerLevel.setWeight(key, deadlines.get(key));
+    private void makeRoom(MemoryTierSegment lockedSegment, long entrySize, List<Demotion> evicted) {
+        removeAllExpiredEntries(lockedSegment);
+        if (hasRoomFor(entrySize)) {
+            return;
+        }
+        if (lockedSegment.size() > 0) {
+            evictBatch(lockedSegment, 1, entrySize, evicted);
+            return;
+        }
+        for (MemoryTierSegment segment : segments) {
+            if (segment != lockedSegment && segment.lock().tryLock()) {
+                try {
+                    if (segment.size() > 0) {
+                        evictBatch(segment, 1, entrySize, evicted);
+                        return;
+                    }
+                } finally {
+                    segment.lock().unlock();
+                }
+            }
         }
-        remove(key);
+        Thread.yield();
     }
 
-    @Override
-    public Object get(long key) {
-        checkStateIsOpen();
-        if (!values.containsKey(key)) {
-            return null;
+    private void removeAllExpiredEntries(MemoryTierSegment segment) {
+        long bytesBefore = segment.bytes();
+        entriesCount.addAndGet(-segment.removeExpired(super.timeSupplier.getAsLong()));
+        bytesCount.addAndGet(segment.bytes() - bytesBefore);
+    }
+
+    /**
+     * Evicts the coldest entries of the segment until the incoming entries fit under the low watermark.
+     * If there is a lower tier, the entries are added to the pending demotions and to the evicted list.
+     */
+    private void evictBatch(MemoryTierSegment segment, int incomingEntries, long incomingBytes,
+                            List<Demotion> evicted) {
+        CacheTier lower = lowerLevel;
+        do {
+            int coldest = segment.selectVictim();
+            if (lower != null) {
+                Demotion demotion = new Demotion(segment.key(coldest), segment.value(coldest),
+                        segment.deadline(coldest), segment.weight(coldest));
+                demotions.put(demotion.key, demotion);
+                evicted.add(demotion);
+            }
+            bytesCount.addAndGet(-segment.entrySize(coldest));
+            segment.evictSlot(coldest);
+            entriesCount.decrementAndGet();
+        } while (segment.size() > 0 && (entriesCount.get() + incomingEntries > lowWatermarkEntries
+                || bytesCount.get() + incomingBytes > lowWatermarkBytes));
+    }
+
+    /**
+     * Writes the evicted entries to the lower tier without holding a segment lock. Until then get and containsKey
+     * find them among the pending demotions. An entry removed meanwhile is not written.
+     */
+    private void demote(List<Demotion> evicted) {
+        CacheTier lower = lowerLevel;
+        for (Demotion demotion : evicted) {
+            synchronized (demotion) {
+                if (lower != null && demotions.get(demotion.key) == demotion) {
+                    lower.put(demotion.key, demotion.value, demotion.deadline);
+                    lower.setWeight(demotion.key, demotion.weight);
+                }
+                demotions.remove(demotion.key, demotion);
+            }
         }
-        if (super.timeSupplier.getAsLong() >= deadlines.get(key)) {
-            remove(key);
+    }
+
+    /**
+     * Drops the pending demotion of the key. If it is being written, waits for the write, so the caller
+     * removing the key from the lower tier afterwards doesn't miss it.
+     */
+    private void forgetDemotion(long key) {
+        Demotion demotion = demotions.remove(key);
+        if (demotion != null) {
+            synchronized (demotion) {
+                // a write under way has finished
+            }
+        }
+    }
+
+    private Object pendingValue(long key) {
+        Demotion demotion = demotions.get(key);
+        if (demotion == null || super.timeSupplier.getAsLong() >= demotion.deadline) {
             return null;
         }
-        incrementWeight(key);
-        return values.get(key);
+        return demotion.value;
+    }
 
+    @Override
+    public Object get(long key) {
+        checkStateIsOpen();
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot < 0) {
+                return pendingValue(key);
+            }
+            if (super.timeSupplier.getAsLong() >= segment.deadline(slot)) {
+                removeSlot(segment, slot);
+                return null;
+            }
+            segment.incrementWeight(slot);
+            return segment.value(slot);
+        } finally {
+            segment.lock().unlock();
+        }
     }
 
     @Override
     public void clear() {
         checkStateIsOpen();
-        values.clear();
-        weights.clear();
-        deadlines.clear();
+        for (MemoryTierSegment segment : segments) {
+            segment.lock().lock();
+            try {
+                bytesCount.addAndGet(-segment.bytes());
+                entriesCount.addAndGet(-segment.clear());
+            } finally {
+                segment.lock().unlock();
+            }
+        }
+        for (Long key : demotions.keySet()) {
+            forgetDemotion(key);
+        }
     }
 
     @Override
     public void remove(long key) {
         checkStateIsOpen();
-        values.remove(key);
-        weights.remove(key);
-        deadlines.remove(key);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                removeSlot(segment, slot);
+            }
+        } finally {
+            segment.lock().unlock();
+        }
+        forgetDemotion(key);
     }
 
     @Override
     public void close() {
         checkStateIsOpen();
-        values = null;
-        weights = null;
-        deadlines = null;
+        segments = null;
+        demotions = null;
         super.close();
     }
 
     @Override
     public boolean containsKey(long key) {
         checkStateIsOpen();
-        return values.containsKey(key);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            return segment.find(key) >= 0 || demotions.containsKey(key);
+        } finally {
+            segment.lock().unlock();
+        }
     }
 
     @Override
     public void incrementWeight(long key) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            long curWeight = weights.get(key);
-            weights.put(key, ++curWeight);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                segment.incrementWeight(slot);
+            }
+        } finally {
+            segment.lock().unlock();
         }
     }
 
     @Override
     public void setWeight(long key, long weight) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            weights.put(key, weight);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                segment.setWeight(slot, weight);
+            }
+        } finally {
+            segment.lock().unlock();
         }
     }
 
     @Override
     public long getWeight(long key) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            return weights.get(key);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                return segment.weight(slot);
+            }
+            return 0;
+        } finally {
+            segment.lock().unlock();
         }
-        return 0;
     }
 
     @Override
     public void setDeadline(long key, long millis) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            deadlines.put(key, millis);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                segment.setDeadline(slot, millis);
+            }
+        } finally {
+            segment.lock().unlock();
         }
     }
 
     @Override
     public long getDeadline(long key) {
         checkStateIsOpen();
-        if (containsKey(key)) {
-            return deadlines.get(key);
+        MemoryTierSegment segment = segmentFor(key);
+        segment.lock().lock();
+        try {
+            int slot = segment.find(key);
+            if (slot >= 0) {
+                return segment.deadline(slot);
+            }
+            return 0;
+        } finally {
+            segment.lock().unlock();
         }
-        return 0;
     }
 
-    public void setLowerLevelCache(CacheTier cacheTier) {
-        lowerLevel = cacheTier;
+    void setSizeEstimator(ToLongFunction<Serializable> sizeEstimator) {
+        checkStateIsOpen();
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    long size() {
+        checkStateIsOpen();
+        return entriesCount.get();
+    }
+
+    long sizeInBytes() {
+        checkStateIsOpen();
+        return bytesCount.get();
+    }
+
+    private void removeSlot(MemoryTierSegment segment, int slot) {
+        bytesCount.addAndGet(-segment.entrySize(slot));
+        segment.removeSlot(slot);
+        entriesCount.decrementAndGet();
+    }
+
+    private MemoryTierSegment segmentFor(long key) {
+        return segments[segmentIndex(key)];
+    }
+
+    int segmentIndex(long key) {
+        long h = key * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h >>> 40) & segmentMask;
+    }
+
+    int segmentCount() {
+        return segments.length;
     }
 }
@@ -0,0 +1,379 @@
+package auskov;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class CacheTierOffHeap extends CacheTier implements Closeable, AutoCloseable {
+    //todo pull common logic to the parent
+
+    private static final Logger LOG = Logger.getLogger(CacheTierOffHeap.class.getName());
+
+    private SlabAllocator allocator;
+    private LongEntryTable index;
+    private long[] addresses;
+    private int[] pageFirstSlot;
+    private int[] nextSlotOnPage;
+    private int[] prevSlotOnPage;
+    private String evictionPolicy;
+    private EvictionPolicy[] policies;
+    private TimerWheel expirations;
+    private long agingPeriod;
+    private long accessesSinceAging;
+    private ValueSerializer serializer;
+
+    CacheTierOffHeap(Properties props) throws InvalidPropertiesFormatException {
+        long maxOffHeapBytes = Long.parseLong(props.getProperty("cache.size.offheap.bytes"));
+        int pageSize = Integer.parseInt(props.getProperty("cache.offheap.page.bytes", "1048576"));
+        evictionPolicy = props.getProperty("cache.eviction.policy.offheap", "lfu");
+        agingPeriod = Long.parseLong(props.getProperty("cache.weight.aging.offheap", "0"));
+        if (maxOffHeapBytes <= 0) {
+            throw new InvalidPropertiesFormatException("Size of the cache tier must be greater than 0!");
+        }
+        if (agingPeriod < 0) {
+            throw new InvalidPropertiesFormatException("Weight aging period can't be negative!");
+        }
+        if (pageSize < SlabAllocator.MIN_CHUNK_SIZE) {
+            throw new InvalidPropertiesFormatException("Off-heap page size must be at least "
+                    + SlabAllocator.MIN_CHUNK_SIZE + " bytes!");
+        }
+
+        super.open = true;
+        super.timeSupplier = System::currentTimeMillis;
+        allocator = new SlabAllocator(maxOffHeapBytes, (int) Math.min(pageSize, Long.highestOneBit(maxOffHeapBytes)));
+        index = new LongEntryTable();
+        addresses = new long[index.slotCapacity()];
+        pageFirstSlot = new int[allocator.maxPages()];
+        Arrays.fill(pageFirstSlot, -1);
+        nextSlotOnPage = new int[index.slotCapacity()];
+        prevSlotOnPage = new int[index.slotCapacity()];
+        policies = new EvictionPolicy[allocator.classesCount()];
+        policies[0] = EvictionPolicy.create(evictionPolicy, index.slotCapacity());
+        expirations = new TimerWheel(index.slotCapacity(), super.timeSupplier.getAsLong());
+        serializer = ValueSerializer.create(props);
+    }
+
+    @Override
+    public void put(long key, Serializable object) {
+        put(key, object, Long.MAX_VALUE);
+    }
+
+    /**
+     * A value larger than a page goes to the lower tier with its deadline. When the memory is exhausted,
+     * the coldest entry of the same size class is evicted, so its chunk takes the value. If the size class
+     * has no entries, a page of the size class holding the most pages is emptied and moves to it.
+     */
+    @Override
+    public synchronized void put(long key, Serializable object, long deadline) {
+        checkStateIsOpen();
+        int existing = index.find(key);
+        if (existing >= 0) {
+            removeSlot(existing);
+        }
+        byte[] data = serialize(object);
+        if (data == null) {
+            return;
+        }
+        if (data.length > allocator.maxLength()) {
+            CacheTier lower = lowerLevel;
+            if (lower != null) {
+                lower.put(key, object, deadline);
+            }
+            return;
+        }
+        int sizeClass = SlabAllocator.sizeClass(data.length);
+        long address = allocator.allocate(data.length);
+        while (address < 0) {
+            removeAllExpiredEntries();
+            address = allocator.allocate(data.length);
+            if (address < 0) {
+                evictForSizeClass(sizeClass);
+                address = allocator.allocate(data.length);
+            }
+        }
+        allocator.write(address, data);
+        int slot = index.add(key, null);
+        if (addresses.length < index.slotCapacity()) {
+            addresses = Arrays.copyOf(addresses, index.slotCapacity());
+            nextSlotOnPage = Arrays.copyOf(nextSlotOnPage, index.slotCapacity());
+            prevSlotOnPage = Arrays.copyOf(prevSlotOnPage, index.slotCapacity());
+        }
+        for (EvictionPolicy policy : policies) {
+            if (policy != null) {
+                policy.ensureCapacity(index.slotCapacity());
+            }
+        }
+        expirations.ensureCapacity(index.slotCapacity());
+        addresses[slot] = address;
+        linkToPage(slot);
+        index.setSize(slot, data.length);
+        index.setDeadline(slot, deadline);
+        expirations.schedule(slot, deadline);
+        policyOfClass(sizeClass).add(slot, key, 0L);
+    }
+
+    private void removeAllExpiredEntries() {
+        expirations.advance(super.timeSupplier.getAsLong(), this::removeSlot);
+    }
+
+    private void evictForSizeClass(int sizeClass) {
+        EvictionPolicy policy = policies[sizeClass];
+        int coldest = policy == null ? -1 : policy.victim();
+        if (coldest >= 0) {
+            evict(coldest);
+            return;
+        }
+        int donor = 0;
+        for (int other = 1; other < policies.length; other++) {
+            if (allocator.pages(other) > allocator.pages(donor)) {
+                donor = other;
+            }
+        }
+        int slot = pageFirstSlot[SlabAllocator.pageOf(addresses[policies[donor].victim()])];
+        while (slot >= 0) {
+            int next = nextSlotOnPage[slot];
+            evict(slot);
+            slot = next;
+        }
+    }
+
+    /**
+     * Links the slot into the list of the slots of its page, so emptying a page visits only its own entries.
+     */
+    private void linkToPage(int slot) {
+        int page = SlabAllocator.pageOf(addresses[slot]);
+        int first = pageFirstSlot[page];
+        nextSlotOnPage[slot] = first;
+        prevSlotOnPage[slot] = -1;
+        if (first >= 0) {
+            prevSlotOnPage[first] = slot;
+        }
+        pageFirstSlot[page] = slot;
+    }
+
+    private void unlinkFromPage(int slot) {
+        int next = nextSlotOnPage[slot];
+        int prev = prevSlotOnPage[slot];
+        if (prev < 0) {
+            pageFirstSlot[SlabAllocator.pageOf(addresses[slot])] = next;
+        } else {
+            nextSlotOnPage[prev] = next;
+        }
+        if (next >= 0) {
+            prevSlotOnPage[next] = prev;
+        }
+    }
+
+    private void evict(int slot) {
+        CacheTier lower = lowerLevel;
+        if (lower != null) {
+            long key = index.key(slot);
+            Object value = readSlot(slot);
+            if (value != null) {
+                lower.put(key, (Serializable) value, index.deadline(slot));
+                lower.setWeight(key, index.weight(slot));
+            }
+        }
+        policyOf(slot).evict(slot);
+        removeSlot(slot);
+    }
+
+    private EvictionPolicy policyOf(int slot) {
+        return policies[SlabAllocator.sizeClass((int) index.size(slot))];
+    }
+
+    private EvictionPolicy policyOfClass(int sizeClass) {
+        if (policies[sizeClass] == null) {
+            try {
+                policies[sizeClass] = EvictionPolicy.create(evictionPolicy, index.slotCapacity());
+            } catch (InvalidPropertiesFormatException e) {
+                throw new IllegalStateException("The eviction policy was checked by the constructor", e);
+            }
+        }
+        return policies[sizeClass];
+    }
+
+    @Override
+    public synchronized Object get(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot < 0) {
+            return null;
+        }
+        if (super.timeSupplier.getAsLong() >= index.deadline(slot)) {
+            removeSlot(slot);
+            return null;
+        }
+        recordAccess(slot);
+        return readSlot(slot);
+    }
+
+    /**
+     * Writes the stored bytes without deserializing them if the serializer of the tier has the same format.
+     */
+    @Override
+    public long transferValue(long key, WritableByteChannel target, ValueSerializer serializer) throws IOException {
+        if (!this.serializer.hasSameFormat(serializer)) {
+            return super.transferValue(key, target, serializer);
+        }
+        byte[] data;
+        synchronized (this) {
+            checkStateIsOpen();
+            int slot = index.find(key);
+            if (slot < 0) {
+                return -1;
+            }
+            if (super.timeSupplier.getAsLong() >= index.deadline(slot)) {
+                removeSlot(slot);
+                return -1;
+            }
+            recordAccess(slot);
+            data = allocator.read(addresses[slot], (int) index.size(slot));
+        }
+        return writeFully(ByteBuffer.wrap(data), target);
+    }
+
+    @Override
+    public synchronized void clear() {
+        checkStateIsOpen();
+        index.clear();
+        for (EvictionPolicy policy : policies) {
+            if (policy != null) {
+                policy.clear();
+            }
+        }
+        expirations.clear();
+        allocator.clear();
+        Arrays.fill(pageFirstSlot, -1);
+    }
+
+    @Override
+    public synchronized void remove(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            removeSlot(slot);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        checkStateIsOpen();
+        allocator.release();
+        allocator = null;
+        index = null;
+        addresses = null;
+        pageFirstSlot = null;
+        nextSlotOnPage = null;
+        prevSlotOnPage = null;
+        policies = null;
+        expirations = null;
+        super.close();
+    }
+
+    @Override
+    public synchronized boolean containsKey(long key) {
+        checkStateIsOpen();
+        return index.find(key) >= 0;
+    }
+
+    @Override
+    public synchronized void incrementWeight(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            recordAccess(slot);
+        }
+    }
+
+    @Override
+    public synchronized void setWeight(long key, long weight) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            index.setWeight(slot, weight);
+            policyOf(slot).setWeight(slot, weight);
+        }
+    }
+
+    @Override
+    public synchronized long getWeight(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            return index.weight(slot);
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized void setDeadline(long key, long millis) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            index.setDeadline(slot, millis);
+            expirations.schedule(slot, millis);
+        }
+    }
+
+    @Override
+    public synchronized long getDeadline(long key) {
+        checkStateIsOpen();
+        int slot = index.find(key);
+        if (slot >= 0) {
+            return index.deadline(slot);
+        }
+        return 0;
+    }
+
+    synchronized long getUsedBytes() {
+        checkStateIsOpen();
+        return allocator.usedBytes();
+    }
+
+    private void recordAccess(int slot) {
+        index.setWeight(slot, index.weight(slot) + 1);
+        policyOf(slot).access(slot);
+        if (agingPeriod > 0 && ++accessesSinceAging >= agingPeriod) {
+            index.halveWeights();
+            for (EvictionPolicy policy : policies) {
+                if (policy != null) {
+                    policy.halveWeights();
+                }
+            }
+            accessesSinceAging = 0;
+        }
+    }
+
+    private void removeSlot(int slot) {
+        policyOf(slot).remove(slot);
+        expirations.cancel(slot);
+        unlinkFromPage(slot);
+        allocator.free(addresses[slot]);
+        index.removeSlot(slot);
+    }
+
+    private Object readSlot(int slot) {
+        byte[] data = allocator.read(addresses[slot], (int) index.size(slot));
+        try {
+            return serializer.deserialize(data);
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the object from the off-heap memory", e);
+        }
+        return null;
+    }
+
+    private byte[] serialize(Serializable object) {
+        try {
+            return serializer.serialize(object);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to write the object to the off-heap memory", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package auskov;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary codec for common value types: a one-byte tag followed by the value. Strings, byte arrays, boxed primitives
+ * and the usual list, set and map classes are written field by field, classes with a registered ValueCodec
+ * are written by their codec, and anything else falls back to Java serialization.
+ */
+final class CompactValueSerializer implements ValueSerializer {
+    private static final String CODEC_PROPERTY_PREFIX = "cache.serializer.codec.";
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte BYTES = 2;
+    private static final byte LONG = 3;
+    private static final byte INTEGER = 4;
+    private static final byte SHORT = 5;
+    private static final byte BYTE = 6;
+    private static final byte DOUBLE = 7;
+    private static final byte FLOAT = 8;
+    private static final byte BOOLEAN = 9;
+    private static final byte CHARACTER = 10;
+    private static final byte ARRAY_LIST = 11;
+    private static final byte HASH_SET = 12;
+    private static final byte LINKED_HASH_SET = 13;
+    private static final byte HASH_MAP = 14;
+    private static final byte LINKED_HASH_MAP = 15;
+    private static final byte CODEC = 16;
+    private static final byte JAVA = 17;
+
+    private final Map<String, ValueCodec<Object>> codecs = new HashMap<>();
+    private final JavaValueSerializer fallback = new JavaValueSerializer();
+
+    CompactValueSerializer() {
+    }
+
+    @SuppressWarnings("unchecked")
+    CompactValueSerializer(Properties props) throws InvalidPropertiesFormatException {
+        for (String name : props.stringPropertyNames()) {
+            if (!name.startsWith(CODEC_PROPERTY_PREFIX)) {
+                continue;
+            }
+            String codecName = props.getProperty(name);
+            try {
+                codecs.put(name.substring(CODEC_PROPERTY_PREFIX.length()),
+                        (ValueCodec<Object>) Class.forName(codecName).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new InvalidPropertiesFormatException("Unknown value codec: " + codecName);
+            }
+        }
+    }
+
+    /**
+     * Makes the codec write the values of exactly this class, subclasses are not covered.
+     */
+    @SuppressWarnings("unchecked")
+    <T> void register(Class<T> valueClass, ValueCodec<T> codec) {
+        codecs.put(valueClass.getName(), (ValueCodec<Object>) codec);
+    }
+
+    @Override
+    public byte[] serialize(Serializable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(value, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            return read(in);
+        }
+    }
+
+    /**
+     * The format depends on the codecs, so the other serializer needs codecs of the same classes
+     * for the same value classes.
+     */
+    @Override
+    public boolean hasSameFormat(ValueSerializer other) {
+        if (!(other instanceof CompactValueSerializer)) {
+            return false;
+        }
+        Map<String, ValueCodec<Object>> otherCodecs = ((CompactValueSerializer) other).codecs;
+        if (!codecs.keySet().equals(otherCodecs.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, ValueCodec<Object>> entry : codecs.entrySet()) {
+            if (entry.getValue().getClass() != otherCodecs.get(entry.getKey()).getClass()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void write(Object value, DataOutputStream out) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+            return;
+        }
+        Class<?> valueClass = value.getClass();
+        ValueCodec<Object> codec = codecs.get(valueClass.getName());
+        if (codec != null) {
+            out.writeByte(CODEC);
+            out.writeUTF(valueClass.getName());
+            codec.write(value, out);
+        } else if (valueClass == String.class) {
+            out.writeByte(STRING);
+            writeBytes(((String) value).getBytes(StandardCharsets.UTF_8), out);
+        } else if (valueClass == byte[].class) {
+            out.writeByte(BYTES);
+            writeBytes((byte[]) value, out);
+        } else if (valueClass == Long.class) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (valueClass == Integer.class) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (valueClass == Short.class) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (valueClass == Byte.class) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (valueClass == Double.class) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (valueClass == Float.class) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (valueClass == Boolean.class) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (valueClass == Character.class) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (valueClass == ArrayList.class || valueClass == HashSet.class || valueClass == LinkedHashSet.class) {
+            out.writeByte(valueClass == ArrayList.class ? ARRAY_LIST
+                    : valueClass == HashSet.class ? HASH_SET : LINKED_HASH_SET);
+            Collection<?> collection = (Collection<?>) value;
+            out.writeInt(collection.size());
+            for (Object element : collection) {
+                write(element, out);
+            }
+        } else if (valueClass == HashMap.class || valueClass == LinkedHashMap.class) {
+            out.writeByte(valueClass == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(entry.getKey(), out);
+                write(entry.getValue(), out);
+            }
+        } else if (value instanceof Serializable) {
+            out.writeByte(JAVA);
+            writeBytes(fallback.serialize((Serializable) value), out);
+        } else {
+            throw new NotSerializableException(valueClass.getName());
+        }
+    }
+
+    private Object read(DataInputStream in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(readBytes(in), StandardCharsets.UTF_8);
+            case BYTES:
+                return readBytes(in);
+            case LONG:
+                return in.readLong();
+            case INTEGER:
+                return in.readInt();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case CHARACTER:
+                return in.readChar();
+            case ARRAY_LIST:
+            case HASH_SET:
+            case LINKED_HASH_SET: {
+                int size = in.readInt();
+                Collection<Object> collection = tag == ARRAY_LIST ? new ArrayList<>(size)
+                        : tag == HASH_SET ? new HashSet<>() : new LinkedHashSet<>();
+                for (int i = 0; i < size; i++) {
+                    collection.add(read(in));
+                }
+                return collection;
+            }
+            case HASH_MAP:
+            case LINKED_HASH_MAP: {
+                int size = in.readInt();
+                Map<Object, Object> map = tag == HASH_MAP ? new HashMap<>() : new LinkedHashMap<>();
+                for (int i = 0; i < size; i++) {
+                    map.put(read(in), read(in));
+                }
+                return map;
+            }
+            case CODEC: {
+                String className = in.readUTF();
+                ValueCodec<Object> codec = codecs.get(className);
+                if (codec == null) {
+                    throw new ClassNotFoundException("No value codec is registered for " + className);
+                }
+                return codec.read(in);
+            }
+            case JAVA:
+                return fallback.deserialize(readBytes(in));
+            default:
+                throw new StreamCorruptedException("Unknown value tag: " + tag);
+        }
+    }
+
+    private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package auskov;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the bytes of the wrapped serializer. Values shorter than the threshold and values that don't get shorter
+ * are kept as they are, a leading byte tells the two forms apart.
+ */
+final class CompressingValueSerializer implements ValueSerializer {
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    private final ValueSerializer delegate;
+    private final int thresholdBytes;
+    private final int level;
+
+    CompressingValueSerializer(ValueSerializer delegate, int thresholdBytes, int level) {
+        this.delegate = delegate;
+        this.thresholdBytes = thresholdBytes;
+        this.level = level;
+    }
+
+    @Override
+    public byte[] serialize(Serializable value) throws IOException {
+        byte[] data = delegate.serialize(value);
+        if (data.length >= thresholdBytes) {
+            byte[] compressed = deflate(data);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        byte[] stored = new byte[data.length + 1];
+        stored[0] = STORED;
+        System.arraycopy(data, 0, stored, 1, data.length);
+        return stored;
+    }
+
+    @Override
+    public Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        if (data.length == 0) {
+            throw new StreamCorruptedException("Empty compressed value");
+        }
+        if (data[0] == STORED) {
+            byte[] stored = new byte[data.length - 1];
+            System.arraycopy(data, 1, stored, 0, stored.length);
+            return delegate.deserialize(stored);
+        }
+        if (data[0] != DEFLATED) {
+            throw new StreamCorruptedException("Unknown compression flag: " + data[0]);
+        }
+        return delegate.deserialize(inflate(data));
+    }
+
+    /**
+     * The threshold and the level don't matter, any compressing serializer reads both forms.
+     */
+    @Override
+    public boolean hasSameFormat(ValueSerializer other) {
+        return other instanceof CompressingValueSerializer
+                && delegate.hasSameFormat(((CompressingValueSerializer) other).delegate);
+    }
+
+    /**
+     * @return the flag, the original length and the deflated bytes, or null if they aren't shorter than the input
+     */
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 16);
+            compressed.write(DEFLATED);
+            compressed.write(ByteBuffer.allocate(4).putInt(data.length).array(), 0, 4);
+            byte[] buffer = new byte[Math.min(data.length, 8192) + 64];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+                if (compressed.size() >= data.length) {
+                    return null;
+                }
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws IOException {
+        int length = ByteBuffer.wrap(data, 1, 4).getInt();
+        byte[] inflated = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, 5, data.length - 5);
+            int offset = 0;
+            while (offset < length) {
+                int count = inflater.inflate(inflated, offset, length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new StreamCorruptedException("Truncated compressed value");
+                }
+                offset += count;
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Corrupted compressed value: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return inflated;
+    }
+}
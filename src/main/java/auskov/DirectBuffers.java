@@ -0,0 +1,43 @@
+package auskov;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Frees direct and mapped buffers right away instead of waiting for the garbage collector.
+ */
+final class DirectBuffers {
+    private static final Logger LOG = Logger.getLogger(DirectBuffers.class.getName());
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Frees the memory of the buffer, or unmaps it if it is a mapping. The caller must drop all references to
+     * the buffer first, and the buffer must not be a slice or a duplicate. If the JVM doesn't allow it,
+     * the buffer is left to the collector.
+     */
+    static void free(ByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (NoSuchMethodException e) {
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            } catch (ReflectiveOperationException | RuntimeException unsupported) {
+                LOG.log(Level.FINE, "The buffer will be freed by the garbage collector", unsupported);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.log(Level.FINE, "The buffer will be freed by the garbage collector", e);
+        }
+    }
+}
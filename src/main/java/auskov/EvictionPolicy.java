@@ -0,0 +1,50 @@
+package auskov;
+
+import java.util.InvalidPropertiesFormatException;
+
+/**
+ * Picks the entry a cache tier evicts when it runs out of room. Entries are identified by the slots of the tier's
+ * index; the tier reports every added, accessed, reweighted and removed slot. Removing a slot the policy
+ * does not track has no effect.
+ */
+interface EvictionPolicy {
+
+    static EvictionPolicy create(String name, int slotCapacity) throws InvalidPropertiesFormatException {
+        switch (name) {
+            case "lru":
+                return new LruEvictionPolicy(slotCapacity);
+            case "lfu":
+                return new LfuEvictionPolicy(slotCapacity);
+            case "fifo":
+                return new FifoEvictionPolicy(slotCapacity);
+            case "slru":
+                return new SlruEvictionPolicy(slotCapacity);
+            case "arc":
+                return new ArcEvictionPolicy(slotCapacity);
+            default:
+                throw new InvalidPropertiesFormatException("Unknown eviction policy: " + name);
+        }
+    }
+
+    void ensureCapacity(int slotCapacity);
+
+    void add(int slot, long key, long weight);
+
+    void access(int slot);
+
+    void setWeight(int slot, long weight);
+
+    void halveWeights();
+
+    /**
+     * Returns the slot to evict or a negative value if the policy tracks no slots. The slot stays tracked
+     * until {@link #evict(int)} is called.
+     */
+    int victim();
+
+    void evict(int slot);
+
+    void remove(int slot);
+
+    void clear();
+}
@@ -0,0 +1,270 @@
+package auskov;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps every entry in three files: the value, the weight and the deadline. A value written from a stream
+ * is kept as its bytes in a file of its own suffix.
+ */
+final class FileEntryStore implements FilesystemEntryStore {
+    private static final Logger LOG = Logger.getLogger(FileEntryStore.class.getName());
+
+    private static final String VALUE_FILE_SUFFIX = ".value";
+    private static final String BYTES_FILE_SUFFIX = ".bytes";
+    private static final int COPY_BUFFER_BYTES = 65536;
+    private static final String WEIGHT_FILE_SUFFIX = ".weight";
+    private static final String DEADLINE_FILE_SUFFIX = ".deadline";
+
+    private final File storageDir;
+    private final ValueSerializer serializer;
+
+    FileEntryStore(File storageDir, ValueSerializer serializer) {
+        this.storageDir = storageDir;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public void write(long key, Serializable object) {
+        byte[] data;
+        try {
+            data = serializer.serialize(object);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to serialize the object of the entry " + key, e);
+            return;
+        }
+        new File(storageDir, key + BYTES_FILE_SUFFIX).delete();
+        writeBytesToFile(data, key + VALUE_FILE_SUFFIX);
+        writeLongToFile(0L, key + WEIGHT_FILE_SUFFIX);
+        writeLongToFile(Long.MAX_VALUE, key + DEADLINE_FILE_SUFFIX);
+    }
+
+    @Override
+    public Object readValue(long key) {
+        File bytes = new File(storageDir, key + BYTES_FILE_SUFFIX);
+        if (bytes.exists()) {
+            try {
+                return Files.readAllBytes(bytes.toPath());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to read the bytes from the file " + bytes.getName(), e);
+                return null;
+            }
+        }
+        return readObjectFromFile(key + VALUE_FILE_SUFFIX);
+    }
+
+    /**
+     * Writes the value to a temporary file first, so a failed stream leaves the existing entry as it is.
+     */
+    @Override
+    public void writeStream(long key, InputStream stream, long length) throws IOException {
+        File temporary = File.createTempFile("stream-" + key + "-", ".tmp", storageDir);
+        try {
+            long copied = 0;
+            try (OutputStream out = new FileOutputStream(temporary)) {
+                byte[] buffer = new byte[COPY_BUFFER_BYTES];
+                int count;
+                while (copied <= length && (count = stream.read(buffer)) >= 0) {
+                    out.write(buffer, 0, count);
+                    copied += count;
+                }
+            }
+            if (copied != length) {
+                throw new IOException("The stream of the entry " + key + " is "
+                        + (copied < length ? "shorter" : "longer") + " than " + length + " bytes");
+            }
+            synchronized (this) {
+                delete(key);
+                Files.move(temporary.toPath(), new File(storageDir, key + BYTES_FILE_SUFFIX).toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+                writeLongToFile(0L, key + WEIGHT_FILE_SUFFIX);
+                writeLongToFile(Long.MAX_VALUE, key + DEADLINE_FILE_SUFFIX);
+            }
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    @Override
+    public InputStream readStream(long key) {
+        try {
+            return Files.newInputStream(new File(storageDir, key + BYTES_FILE_SUFFIX).toPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Transfers the file of the value, or writes the serialized array if a value written from a stream
+     * isn't stored in the format of the serializer.
+     */
+    @Override
+    public long transferValue(long key, WritableByteChannel target) throws IOException {
+        File value = valueFile(key);
+        if (value.getName().endsWith(BYTES_FILE_SUFFIX) && !(serializer instanceof RawValueSerializer)) {
+            Object bytes = readValue(key);
+            if (bytes == null) {
+                return -1;
+            }
+            return CacheTier.writeFully(ByteBuffer.wrap(serializer.serialize((byte[]) bytes)), target);
+        }
+        try (FileChannel channel = FileChannel.open(value.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            long transferred = 0;
+            while (transferred < length) {
+                transferred += channel.transferTo(transferred, length - transferred, target);
+            }
+            return length;
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean contains(long key) {
+        return valueFile(key).exists();
+    }
+
+    @Override
+    public long readWeight(long key) {
+        return readLongFromFile(key + WEIGHT_FILE_SUFFIX);
+    }
+
+    @Override
+    public void writeWeight(long key, long weight) {
+        if (contains(key)) {
+            writeLongToFile(weight, key + WEIGHT_FILE_SUFFIX);
+        }
+    }
+
+    @Override
+    public long readDeadline(long key) {
+        return readLongFromFile(key + DEADLINE_FILE_SUFFIX);
+    }
+
+    @Override
+    public void writeDeadline(long key, long deadline) {
+        if (contains(key)) {
+            writeLongToFile(deadline, key + DEADLINE_FILE_SUFFIX);
+        }
+    }
+
+    @Override
+    public long entrySize(long key, ToLongFunction<File> fileLengthEvaluator) {
+        if (!contains(key)) {
+            return 0;
+        }
+        File value = valueFile(key);
+        File weight = new File(storageDir, key + WEIGHT_FILE_SUFFIX);
+        File deadline = new File(storageDir, key + DEADLINE_FILE_SUFFIX);
+        return fileLengthEvaluator.applyAsLong(value) + fileLengthEvaluator.applyAsLong(weight)
+                + fileLengthEvaluator.applyAsLong(deadline);
+    }
+
+    @Override
+    public void delete(long key) {
+        new File(storageDir, key + VALUE_FILE_SUFFIX).delete();
+        new File(storageDir, key + BYTES_FILE_SUFFIX).delete();
+        new File(storageDir, key + WEIGHT_FILE_SUFFIX).delete();
+        new File(storageDir, key + DEADLINE_FILE_SUFFIX).delete();
+    }
+
+    @Override
+    public void clear() {
+        if (storageDir.exists() && storageDir.isDirectory()) {
+            Arrays.stream(storageDir.list())
+                    .filter(fileName -> !fileName.startsWith("."))
+                    .forEach(fileName -> {
+                        File f = new File(storageDir, fileName);
+                        f.delete();
+                    });
+        }
+    }
+
+    @Override
+    public void restore(LongConsumer restoredKeys) {
+        String[] fileNames = storageDir.list();
+        if (fileNames == null) {
+            return;
+        }
+        for (String fileName : fileNames) {
+            String suffix = fileName.endsWith(VALUE_FILE_SUFFIX) ? VALUE_FILE_SUFFIX
+                    : fileName.endsWith(BYTES_FILE_SUFFIX) ? BYTES_FILE_SUFFIX : null;
+            if (suffix == null) {
+                continue;
+            }
+            try {
+                long key = Long.parseLong(fileName.substring(0, fileName.length() - suffix.length()));
+                if (suffix.equals(VALUE_FILE_SUFFIX) || !new File(storageDir, key + VALUE_FILE_SUFFIX).exists()) {
+                    restoredKeys.accept(key);
+                }
+            } catch (NumberFormatException e) {
+                LOG.fine("The file " + fileName + " is not a cache entry");
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private File valueFile(long key) {
+        File bytes = new File(storageDir, key + BYTES_FILE_SUFFIX);
+        return bytes.exists() ? bytes : new File(storageDir, key + VALUE_FILE_SUFFIX);
+    }
+
+    private void writeBytesToFile(byte[] data, String fileName) {
+        File file = new File(storageDir, fileName);
+        try (OutputStream stream = new FileOutputStream(file)) {
+            stream.write(data);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed attempt to write the object to the file " + fileName, e);
+        }
+    }
+
+    private void writeLongToFile(long value, String fileName) {
+        File file = new File(storageDir, fileName);
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(file))) {
+            stream.writeLong(value);
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed attempt to write the long value to the file " + fileName, e);
+        }
+    }
+
+    private Object readObjectFromFile(String fileName) {
+        File valueFile = new File(storageDir, fileName);
+        Object object = null;
+        try {
+            object = serializer.deserialize(Files.readAllBytes(valueFile.toPath()));
+        } catch (NoSuchFileException e) {
+            LOG.fine("The file " + fileName + "does not exist");
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the object from the file " + fileName, e);
+        }
+        return object;
+    }
+
+    private long readLongFromFile(String fileName) {
+        File file = new File(storageDir, fileName);
+        long value = 0;
+        try (DataInputStream valueInputStream = new DataInputStream(new FileInputStream(file))) {
+            value = valueInputStream.readLong();
+        } catch (FileNotFoundException e) {
+            LOG.fine("The file " + fileName + "does not exist");
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the long value from the file " + fileName, e);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+package auskov;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Storage engine of CacheTierFilesystem. Keeps the value, weight and deadline of every entry in a directory.
+ */
+interface FilesystemEntryStore {
+
+    /**
+     * Stores the value with zero weight and no deadline, replacing a previous entry with the same key.
+     */
+    void write(long key, Serializable object);
+
+    Object readValue(long key);
+
+    /**
+     * Stores exactly length bytes of the stream as the value, without holding them in memory, with zero weight
+     * and no deadline. The value is read back as a byte array. If the stream fails or doesn't give exactly
+     * the length, nothing is stored and an existing entry with the same key is kept. Unlike the other methods,
+     * it doesn't need the caller to hold the lock of the store while the stream is read.
+     */
+    void writeStream(long key, InputStream stream, long length) throws IOException;
+
+    /**
+     * Returns a stream reading a value stored by writeStream lazily, or null if there is no such entry
+     * or it was stored as an object.
+     */
+    InputStream readStream(long key);
+
+    /**
+     * Writes the stored bytes of the value to the channel without deserializing them and returns their number,
+     * or -1 if there is no such entry. Like writeStream, it doesn't need the caller to hold the lock of the store
+     * while the channel is written.
+     */
+    long transferValue(long key, WritableByteChannel target) throws IOException;
+
+    boolean contains(long key);
+
+    long readWeight(long key);
+
+    /**
+     * Does nothing if there is no such entry.
+     */
+    void writeWeight(long key, long weight);
+
+    long readDeadline(long key);
+
+    /**
+     * Does nothing if there is no such entry.
+     */
+    void writeDeadline(long key, long deadline);
+
+    /**
+     * Returns the number of bytes the entry takes, or 0 if there is no such entry. Engines keeping entries
+     * in separate files measure them with the given evaluator.
+     */
+    long entrySize(long key, ToLongFunction<File> fileLengthEvaluator);
+
+    void delete(long key);
+
+    void clear();
+
+    /**
+     * Takes over the entries a previous store left in the directory and passes their keys to the consumer.
+     */
+    void restore(LongConsumer restoredKeys);
+
+    /**
+     * Releases the files. The entries stay in the directory and a later store can restore them.
+     */
+    void close();
+}
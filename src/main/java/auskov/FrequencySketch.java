@@ -0,0 +1,82 @@
+package auskov;
+
+/**
+ * Count-min sketch of access frequencies with four 4-bit counters per key, sixteen counters packed in a long.
+ * All counters are halved once the number of increments reaches ten times the capacity, so the sketch
+ * follows recent popularity instead of all-time counts.
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+            0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNTER = 15;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+    private int capacity;
+
+    FrequencySketch(int capacity) {
+        ensureCapacity(capacity);
+    }
+
+    void ensureCapacity(int expectedCapacity) {
+        if (table != null && expectedCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(16, Math.max(expectedCapacity, table == null ? 0 : capacity * 2));
+        capacity = newCapacity;
+        int tableSize = Integer.highestOneBit(Math.min(newCapacity, 1 << 30) - 1) << 1;
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = 10 * Math.min(newCapacity, Integer.MAX_VALUE / 10);
+        additions = 0;
+    }
+
+    int frequency(long key) {
+        long hash = spread(key);
+        int start = (int) (hash & 3) << 2;
+        int frequency = MAX_COUNTER;
+        for (int i = 0; i < 4; i++) {
+            int counter = (start + i) << 2;
+            frequency = Math.min(frequency, (int) ((table[indexOf(hash, i)] >>> counter) & 0xFL));
+        }
+        return frequency;
+    }
+
+    void increment(long key) {
+        long hash = spread(key);
+        int start = (int) (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int counter = (start + i) << 2;
+            if (((table[index] >>> counter) & 0xFL) != MAX_COUNTER) {
+                table[index] += 1L << counter;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(long hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static long spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,30 @@
+package auskov;
+
+import java.io.*;
+
+/**
+ * Java serialization of any Serializable value.
+ */
+final class JavaValueSerializer implements ValueSerializer {
+
+    @Override
+    public byte[] serialize(Serializable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+            stream.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return stream.readObject();
+        }
+    }
+
+    @Override
+    public boolean hasSameFormat(ValueSerializer other) {
+        return other instanceof JavaValueSerializer;
+    }
+}
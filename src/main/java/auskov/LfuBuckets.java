@@ -0,0 +1,236 @@
+package auskov;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * LFU bookkeeping over table slots. Entries with the same weight share a bucket, buckets are kept in a list
+ * ordered by weight, so the coldest entry is the head of the first bucket. Among equal weights the oldest entry
+ * goes first. Moving an entry by one, as an increment does, and adding an entry not heavier than the coldest one
+ * take constant time. Other weights find their bucket through an ordered index of the buckets in O(log buckets).
+ */
+final class LfuBuckets {
+    private static final int NIL = -1;
+
+    private int[] entryNext;
+    private int[] entryPrev;
+    private int[] entryBucket;
+
+    private long[] bucketWeight;
+    private int[] bucketHead;
+    private int[] bucketTail;
+    private int[] bucketNext;
+    private int[] bucketPrev;
+    private int[] freeBuckets;
+    private int freeBucketCount;
+    private int bucketLimit;
+    private int firstBucket;
+    private final TreeMap<Long, Integer> bucketsByWeight = new TreeMap<>();
+
+    LfuBuckets() {
+        this(16);
+    }
+
+    LfuBuckets(int slotCapacity) {
+        entryNext = new int[slotCapacity];
+        entryPrev = new int[slotCapacity];
+        entryBucket = new int[slotCapacity];
+        Arrays.fill(entryBucket, NIL);
+        allocateBuckets(16);
+        firstBucket = NIL;
+    }
+
+    void ensureCapacity(int slotCapacity) {
+        if (slotCapacity > entryNext.length) {
+            int oldCapacity = entryNext.length;
+            entryNext = Arrays.copyOf(entryNext, slotCapacity);
+            entryPrev = Arrays.copyOf(entryPrev, slotCapacity);
+            entryBucket = Arrays.copyOf(entryBucket, slotCapacity);
+            Arrays.fill(entryBucket, oldCapacity, slotCapacity, NIL);
+        }
+    }
+
+    void add(int slot, long weight) {
+        int bucket;
+        if (firstBucket == NIL || weight < bucketWeight[firstBucket]) {
+            bucket = insertBucketAfter(NIL, weight);
+        } else if (weight == bucketWeight[firstBucket]) {
+            bucket = firstBucket;
+        } else {
+            bucket = bucketOf(weight);
+        }
+        appendEntry(bucket, slot);
+    }
+
+    void increment(int slot) {
+        setWeight(slot, bucketWeight[entryBucket[slot]] + 1);
+    }
+
+    void setWeight(int slot, long weight) {
+        int current = entryBucket[slot];
+        if (bucketWeight[current] == weight) {
+            return;
+        }
+        int target;
+        if (weight == bucketWeight[current] + 1) {
+            int next = bucketNext[current];
+            target = next != NIL && bucketWeight[next] == weight ? next : insertBucketAfter(current, weight);
+        } else if (weight == bucketWeight[current] - 1) {
+            int prev = bucketPrev[current];
+            target = prev != NIL && bucketWeight[prev] == weight ? prev : insertBucketAfter(prev, weight);
+        } else {
+            target = bucketOf(weight);
+        }
+        unlinkEntry(slot);
+        appendEntry(target, slot);
+    }
+
+    /**
+     * Returns the bucket of the weight, inserting it after the heaviest lighter bucket if there is none.
+     */
+    private int bucketOf(long weight) {
+        Map.Entry<Long, Integer> floor = bucketsByWeight.floorEntry(weight);
+        if (floor != null && floor.getKey() == weight) {
+            return floor.getValue();
+        }
+        return insertBucketAfter(floor == null ? NIL : floor.getValue(), weight);
+    }
+
+    /**
+     * Halves the weights of all entries. Halving keeps the order of the buckets, so it only relabels them,
+     * merges neighbours that end up with the same weight and rebuilds the index.
+     */
+    void halveWeights() {
+        bucketsByWeight.clear();
+        int bucket = firstBucket;
+        while (bucket != NIL) {
+            int next = bucketNext[bucket];
+            bucketWeight[bucket] >>= 1;
+            int previous = bucketPrev[bucket];
+            if (previous != NIL && bucketWeight[previous] == bucketWeight[bucket]) {
+                mergeInto(previous, bucket);
+            } else {
+                bucketsByWeight.put(bucketWeight[bucket], bucket);
+            }
+            bucket = next;
+        }
+    }
+
+    void remove(int slot) {
+        if (entryBucket[slot] != NIL) {
+            unlinkEntry(slot);
+        }
+    }
+
+    int coldest() {
+        return firstBucket == NIL ? NIL : bucketHead[firstBucket];
+    }
+
+    void clear() {
+        Arrays.fill(entryBucket, NIL);
+        freeBucketCount = 0;
+        bucketLimit = 0;
+        firstBucket = NIL;
+        bucketsByWeight.clear();
+    }
+
+    private void appendEntry(int bucket, int slot) {
+        int tail = bucketTail[bucket];
+        entryPrev[slot] = tail;
+        entryNext[slot] = NIL;
+        if (tail == NIL) {
+            bucketHead[bucket] = slot;
+        } else {
+            entryNext[tail] = slot;
+        }
+        bucketTail[bucket] = slot;
+        entryBucket[slot] = bucket;
+    }
+
+    private void unlinkEntry(int slot) {
+        int bucket = entryBucket[slot];
+        int prev = entryPrev[slot];
+        int next = entryNext[slot];
+        if (prev == NIL) {
+            bucketHead[bucket] = next;
+        } else {
+            entryNext[prev] = next;
+        }
+        if (next == NIL) {
+            bucketTail[bucket] = prev;
+        } else {
+            entryPrev[next] = prev;
+        }
+        entryBucket[slot] = NIL;
+        if (bucketHead[bucket] == NIL) {
+            releaseBucket(bucket);
+        }
+    }
+
+    private void mergeInto(int target, int bucket) {
+        for (int slot = bucketHead[bucket]; slot != NIL; slot = entryNext[slot]) {
+            entryBucket[slot] = target;
+        }
+        int head = bucketHead[bucket];
+        entryNext[bucketTail[target]] = head;
+        entryPrev[head] = bucketTail[target];
+        bucketTail[target] = bucketTail[bucket];
+        bucketHead[bucket] = NIL;
+        releaseBucket(bucket);
+    }
+
+    private int insertBucketAfter(int previous, long weight) {
+        int bucket = acquireBucket();
+        bucketWeight[bucket] = weight;
+        bucketHead[bucket] = NIL;
+        bucketTail[bucket] = NIL;
+        int next = previous == NIL ? firstBucket : bucketNext[previous];
+        bucketPrev[bucket] = previous;
+        bucketNext[bucket] = next;
+        if (previous == NIL) {
+            firstBucket = bucket;
+        } else {
+            bucketNext[previous] = bucket;
+        }
+        if (next != NIL) {
+            bucketPrev[next] = bucket;
+        }
+        bucketsByWeight.put(weight, bucket);
+        return bucket;
+    }
+
+    private void releaseBucket(int bucket) {
+        int prev = bucketPrev[bucket];
+        int next = bucketNext[bucket];
+        if (prev == NIL) {
+            firstBucket = next;
+        } else {
+            bucketNext[prev] = next;
+        }
+        if (next != NIL) {
+            bucketPrev[next] = prev;
+        }
+        bucketsByWeight.remove(bucketWeight[bucket], bucket);
+        freeBuckets[freeBucketCount++] = bucket;
+    }
+
+    private int acquireBucket() {
+        if (freeBucketCount > 0) {
+            return freeBuckets[--freeBucketCount];
+        }
+        if (bucketLimit == bucketWeight.length) {
+            allocateBuckets(bucketWeight.length * 2);
+        }
+        return bucketLimit++;
+    }
+
+    private void allocateBuckets(int capacity) {
+        bucketWeight = bucketWeight == null ? new long[capacity] : Arrays.copyOf(bucketWeight, capacity);
+        bucketHead = bucketHead == null ? new int[capacity] : Arrays.copyOf(bucketHead, capacity);
+        bucketTail = bucketTail == null ? new int[capacity] : Arrays.copyOf(bucketTail, capacity);
+        bucketNext = bucketNext == null ? new int[capacity] : Arrays.copyOf(bucketNext, capacity);
+        bucketPrev = bucketPrev == null ? new int[capacity] : Arrays.copyOf(bucketPrev, capacity);
+        freeBuckets = freeBuckets == null ? new int[capacity] : Arrays.copyOf(freeBuckets, capacity);
+    }
+}
@@ -0,0 +1,57 @@
+package auskov;
+
+/**
+ * Evicts the entry with the lowest weight, the oldest one among equal weights.
+ */
+final class LfuEvictionPolicy implements EvictionPolicy {
+    private final LfuBuckets buckets;
+
+    LfuEvictionPolicy(int slotCapacity) {
+        buckets = new LfuBuckets(slotCapacity);
+    }
+
+    @Override
+    public void ensureCapacity(int slotCapacity) {
+        buckets.ensureCapacity(slotCapacity);
+    }
+
+    @Override
+    public void add(int slot, long key, long weight) {
+        buckets.add(slot, weight);
+    }
+
+    @Override
+    public void access(int slot) {
+        buckets.increment(slot);
+    }
+
+    @Override
+    public void setWeight(int slot, long weight) {
+        buckets.setWeight(slot, weight);
+    }
+
+    @Override
+    public void halveWeights() {
+        buckets.halveWeights();
+    }
+
+    @Override
+    public int victim() {
+        return buckets.coldest();
+    }
+
+    @Override
+    public void evict(int slot) {
+        buckets.remove(slot);
+    }
+
+    @Override
+    public void remove(int slot) {
+        buckets.remove(slot);
+    }
+
+    @Override
+    public void clear() {
+        buckets.clear();
+    }
+}
@@ -0,0 +1,218 @@
+package auskov;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table keyed by primitive long. Every entry lives in a single slot holding
+ * its value, weight, deadline and size side by side, so a lookup is one probe and never allocates.
+ * Slots are stable while the entry is present, which lets other structures refer to an entry by slot.
+ */
+final class LongEntryTable {
+    private static final int MIN_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+
+    private long[] bucketKeys;
+    private int[] bucketSlots;
+    private int bucketMask;
+
+    private long[] keys;
+    private Object[] values;
+    private long[] weights;
+    private long[] deadlines;
+    private long[] sizes;
+    private boolean[] used;
+    private int[] freeSlots;
+    private int freeCount;
+    private int slotLimit;
+    private int size;
+
+    LongEntryTable() {
+        this(MIN_CAPACITY);
+    }
+
+    LongEntryTable(int expectedSize) {
+        int slotCapacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) - 1) << 1);
+        allocateBuckets(slotCapacity * 2);
+        keys = new long[slotCapacity];
+        values = new Object[slotCapacity];
+        weights = new long[slotCapacity];
+        deadlines = new long[slotCapacity];
+        sizes = new long[slotCapacity];
+        used = new boolean[slotCapacity];
+        freeSlots = new int[slotCapacity];
+    }
+
+    int find(long key) {
+        int bucket = hash(key) & bucketMask;
+        int slot;
+        while ((slot = bucketSlots[bucket]) != NO_SLOT) {
+            if (bucketKeys[bucket] == key) {
+                return slot;
+            }
+            bucket = (bucket + 1) & bucketMask;
+        }
+        return NO_SLOT;
+    }
+
+    int add(long key, Object value) {
+        if ((size + 1) * 2 > bucketSlots.length) {
+            allocateBuckets(bucketSlots.length * 2);
+            rehash();
+        }
+        int slot = acquireSlot();
+        keys[slot] = key;
+        values[slot] = value;
+        weights[slot] = 0L;
+        deadlines[slot] = Long.MAX_VALUE;
+        sizes[slot] = 0L;
+        used[slot] = true;
+        int bucket = hash(key) & bucketMask;
+        while (bucketSlots[bucket] != NO_SLOT) {
+            bucket = (bucket + 1) & bucketMask;
+        }
+        bucketKeys[bucket] = key;
+        bucketSlots[bucket] = slot;
+        size++;
+        return slot;
+    }
+
+    void removeSlot(int slot) {
+        int bucket = hash(keys[slot]) & bucketMask;
+        while (bucketSlots[bucket] != slot) {
+            bucket = (bucket + 1) & bucketMask;
+        }
+        shiftBackFrom(bucket);
+        values[slot] = null;
+        used[slot] = false;
+        freeSlots[freeCount++] = slot;
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(bucketSlots, NO_SLOT);
+        Arrays.fill(values, null);
+        Arrays.fill(used, false);
+        freeCount = 0;
+        slotLimit = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int slotLimit() {
+        return slotLimit;
+    }
+
+    int slotCapacity() {
+        return keys.length;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    long key(int slot) {
+        return keys[slot];
+    }
+
+    Object value(int slot) {
+        return values[slot];
+    }
+
+    void setValue(int slot, Object value) {
+        values[slot] = value;
+    }
+
+    long weight(int slot) {
+        return weights[slot];
+    }
+
+    void setWeight(int slot, long weight) {
+        weights[slot] = weight;
+    }
+
+    void halveWeights() {
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (used[slot]) {
+                weights[slot] >>= 1;
+            }
+        }
+    }
+
+    long deadline(int slot) {
+        return deadlines[slot];
+    }
+
+    void setDeadline(int slot, long deadline) {
+        deadlines[slot] = deadline;
+    }
+
+    long size(int slot) {
+        return sizes[slot];
+    }
+
+    void setSize(int slot, long size) {
+        sizes[slot] = size;
+    }
+
+    private int acquireSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotLimit == keys.length) {
+            int newCapacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+            weights = Arrays.copyOf(weights, newCapacity);
+            deadlines = Arrays.copyOf(deadlines, newCapacity);
+            sizes = Arrays.copyOf(sizes, newCapacity);
+            used = Arrays.copyOf(used, newCapacity);
+            freeSlots = Arrays.copyOf(freeSlots, newCapacity);
+        }
+        return slotLimit++;
+    }
+
+    private void shiftBackFrom(int hole) {
+        int bucket = hole;
+        while (true) {
+            bucket = (bucket + 1) & bucketMask;
+            if (bucketSlots[bucket] == NO_SLOT) {
+                break;
+            }
+            int home = hash(bucketKeys[bucket]) & bucketMask;
+            if (((bucket - home) & bucketMask) >= ((bucket - hole) & bucketMask)) {
+                bucketKeys[hole] = bucketKeys[bucket];
+                bucketSlots[hole] = bucketSlots[bucket];
+                hole = bucket;
+            }
+        }
+        bucketSlots[hole] = NO_SLOT;
+    }
+
+    private void allocateBuckets(int capacity) {
+        bucketKeys = new long[capacity];
+        bucketSlots = new int[capacity];
+        Arrays.fill(bucketSlots, NO_SLOT);
+        bucketMask = capacity - 1;
+    }
+
+    private void rehash() {
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (used[slot]) {
+                int bucket = hash(keys[slot]) & bucketMask;
+                while (bucketSlots[bucket] != NO_SLOT) {
+                    bucket = (bucket + 1) & bucketMask;
+                }
+                bucketKeys[bucket] = keys[slot];
+                bucketSlots[bucket] = slot;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,57 @@
+package auskov;
+
+/**
+ * Evicts the least recently used entry.
+ */
+final class LruEvictionPolicy implements EvictionPolicy {
+    private final SlotList order;
+
+    LruEvictionPolicy(int slotCapacity) {
+        order = new SlotList(slotCapacity);
+    }
+
+    @Override
+    public void ensureCapacity(int slotCapacity) {
+        order.ensureCapacity(slotCapacity);
+    }
+
+    @Override
+    public void add(int slot, long key, long weight) {
+        order.addLast(slot);
+    }
+
+    @Override
+    public void access(int slot) {
+        if (order.contains(slot)) {
+            order.moveToLast(slot);
+        }
+    }
+
+    @Override
+    public void setWeight(int slot, long weight) {
+    }
+
+    @Override
+    public void halveWeights() {
+    }
+
+    @Override
+    public int victim() {
+        return order.head();
+    }
+
+    @Override
+    public void evict(int slot) {
+        order.remove(slot);
+    }
+
+    @Override
+    public void remove(int slot) {
+        order.remove(slot);
+    }
+
+    @Override
+    public void clear() {
+        order.clear();
+    }
+}
@@ -0,0 +1,181 @@
+package auskov;
+
+import java.io.Serializable;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A lock-guarded partition of CacheTierMemory. All methods except the lock accessor expect the caller to hold the lock.
+ */
+final class MemoryTierSegment {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LongEntryTable entries;
+    private final EvictionPolicy policy;
+    private final TimerWheel expirations;
+    private final FrequencySketch sketch;
+    private final SlotList window;
+    private final int windowPercent;
+    private final int agingPeriod;
+    private int accessesSinceAging;
+    private int expiredCount;
+    private long bytes;
+
+    MemoryTierSegment(int expectedSize, long now) {
+        this(expectedSize, now, 0, new LfuEvictionPolicy(expectedSize), 0);
+    }
+
+    MemoryTierSegment(int expectedSize, long now, int windowPercent, EvictionPolicy policy, int agingPeriod) {
+        entries = new LongEntryTable(expectedSize);
+        this.policy = policy;
+        this.agingPeriod = agingPeriod;
+        policy.ensureCapacity(entries.slotCapacity());
+        expirations = new TimerWheel(entries.slotCapacity(), now);
+        this.windowPercent = windowPercent;
+        if (windowPercent > 0) {
+            sketch = new FrequencySketch(expectedSize);
+            window = new SlotList(entries.slotCapacity());
+        } else {
+            sketch = null;
+            window = null;
+        }
+    }
+
+    ReentrantLock lock() {
+        return lock;
+    }
+
+    int find(long key) {
+        return entries.find(key);
+    }
+
+    int add(long key, Serializable object, long entrySize) {
+        int slot = entries.add(key, object);
+        entries.setSize(slot, entrySize);
+        bytes += entrySize;
+        policy.ensureCapacity(entries.slotCapacity());
+        expirations.ensureCapacity(entries.slotCapacity());
+        if (sketch != null) {
+            sketch.ensureCapacity(entries.size());
+            sketch.increment(key);
+            window.ensureCapacity(entries.slotCapacity());
+            window.addLast(slot);
+        } else {
+            policy.add(slot, key, 0L);
+        }
+        return slot;
+    }
+
+    void removeSlot(int slot) {
+        if (window != null) {
+            window.remove(slot);
+        }
+        policy.remove(slot);
+        expirations.cancel(slot);
+        bytes -= entries.size(slot);
+        entries.removeSlot(slot);
+    }
+
+    void evictSlot(int slot) {
+        if (window == null || !window.contains(slot)) {
+            policy.evict(slot);
+        }
+        removeSlot(slot);
+    }
+
+    int removeExpired(long now) {
+        expiredCount = 0;
+        expirations.advance(now, slot -> {
+            removeSlot(slot);
+            expiredCount++;
+        });
+        return expiredCount;
+    }
+
+    int selectVictim() {
+        if (window == null) {
+            return policy.victim();
+        }
+        int windowLimit = Math.max(1, entries.size() * windowPercent / 100);
+        while (window.size() > windowLimit) {
+            int candidate = window.pollFirst();
+            int mainVictim = policy.victim();
+            policy.add(candidate, entries.key(candidate), entries.weight(candidate));
+            if (mainVictim >= 0 && window.size() == windowLimit) {
+                if (sketch.frequency(entries.key(candidate)) > sketch.frequency(entries.key(mainVictim))) {
+                    return mainVictim;
+                }
+                return candidate;
+            }
+        }
+        int mainVictim = policy.victim();
+        return mainVictim >= 0 ? mainVictim : window.head();
+    }
+
+    int clear() {
+        int removed = entries.size();
+        entries.clear();
+        policy.clear();
+        expirations.clear();
+        if (window != null) {
+            window.clear();
+        }
+        bytes = 0;
+        return removed;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long entrySize(int slot) {
+        return entries.size(slot);
+    }
+
+    long key(int slot) {
+        return entries.key(slot);
+    }
+
+    Serializable value(int slot) {
+        return (Serializable) entries.value(slot);
+    }
+
+    long weight(int slot) {
+        return entries.weight(slot);
+    }
+
+    void incrementWeight(int slot) {
+        entries.setWeight(slot, entries.weight(slot) + 1);
+        if (sketch != null) {
+            sketch.increment(entries.key(slot));
+        }
+        if (window != null && window.contains(slot)) {
+            window.moveToLast(slot);
+        } else {
+            policy.access(slot);
+        }
+        if (agingPeriod > 0 && ++accessesSinceAging >= agingPeriod) {
+            entries.halveWeights();
+            policy.halveWeights();
+            accessesSinceAging = 0;
+        }
+    }
+
+    void setWeight(int slot, long weight) {
+        entries.setWeight(slot, weight);
+        if (window == null || !window.contains(slot)) {
+            policy.setWeight(slot, weight);
+        }
+    }
+
+    long deadline(int slot) {
+        return entries.deadline(slot);
+    }
+
+    void setDeadline(int slot, long millis) {
+        entries.setDeadline(slot, millis);
+        expirations.schedule(slot, millis);
+    }
+}
@@ -2,7 +2,16 @@ package auskov;
 
 import org.ehcache.CachePersistenceException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
 
 public interface MyCache {
     long put(Serializable object);
@@ -11,4 +20,96 @@ public interface MyCache {
     void remove(long key);
     void close() throws CachePersistenceException;
     boolean containsKey(long key);
+
+    /**
+     * Asynchronous variants of get, put and remove. The default implementations run the operation
+     * on the calling thread and return a completed future.
+     */
+    default CompletableFuture<Object> getAsync(long key) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        try {
+            result.complete(get(key));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    default CompletableFuture<Long> putAsync(Serializable object) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        try {
+            result.complete(put(object));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Writes the serialized value to the channel and returns the number of bytes written, or -1 if there is
+     * no such entry. The default implementation serializes the object get returns with Java serialization.
+     */
+    default long transferTo(long key, WritableByteChannel target) throws IOException {
+        Object value = get(key);
+        if (value == null) {
+            return -1;
+        }
+        ByteBuffer data = ByteBuffer.wrap(new JavaValueSerializer().serialize((Serializable) value));
+        while (data.hasRemaining()) {
+            target.write(data);
+        }
+        return data.capacity();
+    }
+
+    /**
+     * Returns the serialized value, or null if there is no such entry.
+     */
+    default ByteBuffer getBytes(long key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (transferTo(key, Channels.newChannel(bytes)) < 0) {
+            return null;
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Stores exactly length bytes of the stream as a byte array value and returns its key. The default
+     * implementation reads the whole stream into memory.
+     */
+    default long putStream(InputStream stream, long length) throws IOException {
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Length of the value doesn't fit into a byte array!");
+        }
+        byte[] data = new byte[(int) length];
+        new DataInputStream(stream).readFully(data);
+        if (stream.read() >= 0) {
+            throw new IOException("The stream is longer than " + length + " bytes");
+        }
+        return put(data);
+    }
+
+    /**
+     * Returns a stream reading a byte array value, or null if there is no such entry.
+     */
+    default InputStream getStream(long key) {
+        Object value = get(key);
+        if (value == null) {
+            return null;
+        }
+        if (!(value instanceof byte[])) {
+            throw new IllegalArgumentException("The value of the entry " + key + " is not a byte array!");
+        }
+        return new ByteArrayInputStream((byte[]) value);
+    }
+
+    default CompletableFuture<Void> removeAsync(long key) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            remove(key);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
 }
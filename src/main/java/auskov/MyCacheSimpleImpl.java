@@ -1,18 +1,33 @@
 package auskov;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.InvalidPropertiesFormatException;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Safe for use from many threads. Keys are taken from an atomic counter. Moving an entry between tiers on get
+ * and removing it hold the lock of the key's stripe, so a removed entry can't be copied back into the upper tier.
+ * Demotions don't need it: a tier puts the evicted entry into the lower tier before it lets go of its own lock,
+ * so a reader finds the entry in one of them.
+ */
 public class MyCacheSimpleImpl implements MyCache {
-    private long nextId;
-    private boolean open;
-    private CacheTierMemory levelOne;
-    private CacheTierFilesystem levelTwo;
+    private static final int KEY_LOCK_STRIPES = 64;
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final Object[] keyLocks = new Object[KEY_LOCK_STRIPES];
+    private volatile boolean open;
+    private List<CacheTier> tiers;
+    private CacheTierFilesystem filesystemTier;
+    private AsyncIoExecutor asyncIo;
+    private ValueSerializer serializer;
 
-    private boolean memoryTierEnabled;
-    private boolean filesystemTierEnabled;
     private String expirationPolicy;
     private long expirationMillis;
     private boolean putToBottom;
@@ -28,27 +43,42 @@ public class MyCacheSimpleImpl implements MyCache {
     }
 
     private MyCacheSimpleImpl(Properties props) throws InvalidPropertiesFormatException {
-        memoryTierEnabled = "enable".equals(props.getProperty("cache.tiers.memory"));
-        filesystemTierEnabled = "enable".equals(props.getProperty("cache.tiers.filesystem"));
+        boolean memoryTierEnabled = "enable".equals(props.getProperty("cache.tiers.memory"));
+        boolean offHeapTierEnabled = "enable".equals(props.getProperty("cache.tiers.offheap"));
+        boolean filesystemTierEnabled = "enable".equals(props.getProperty("cache.tiers.filesystem"));
         expirationPolicy = props.getProperty("cache.expiration.policy");
         expirationMillis = Long.parseLong(props.getProperty("cache.expiration.millis"));
         putToBottom = "bottom".equals(props.getProperty("cache.tiers.put.to"));
 
-        if (!memoryTierEnabled && !filesystemTierEnabled) {
+        if (!memoryTierEnabled && !offHeapTierEnabled && !filesystemTierEnabled) {
             throw new InvalidPropertiesFormatException("At least one caching tier should be enabled!");
         }
+        asyncIo = AsyncIoExecutor.create(props);
+        tiers = new ArrayList<>();
         if (memoryTierEnabled) {
-            levelOne = new CacheTierMemory(props);
+            tiers.add(new CacheTierMemory(props));
+        }
+        if (offHeapTierEnabled) {
+            tiers.add(new CacheTierOffHeap(props));
         }
         if (filesystemTierEnabled) {
-            levelTwo = new CacheTierFilesystem(props);
-
+            filesystemTier = new CacheTierFilesystem(props);
+            tiers.add(filesystemTier);
+        }
+        if ("enable".equals(props.getProperty("cache.demotion.async"))) {
+            for (int i = 1; i < tiers.size(); i++) {
+                tiers.set(i, new CacheTierAsyncDemotion(tiers.get(i), props));
+            }
         }
-        if(memoryTierEnabled && filesystemTierEnabled) {
-            levelOne.setLowerLevelCache(levelTwo);
+        for (int i = 0; i + 1 < tiers.size(); i++) {
+            tiers.get(i).setLowerLevelCache(tiers.get(i + 1));
         }
 
-        nextId = 0;
+        for (int i = 0; i < keyLocks.length; i++) {
+            keyLocks[i] = new Object();
+        }
+        nextId.set(filesystemTier != null ? filesystemTier.getNextKey() : 0);
+        serializer = ValueSerializer.create(props);
         open = true;
     }
 
@@ -57,12 +87,77 @@ public class MyCacheSimpleImpl implements MyCache {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
         }
-        CacheTier putTier = filesystemTierEnabled && putToBottom || !memoryTierEnabled ? levelTwo : levelOne;
-        putTier.put(nextId, object);
+        long key = nextId.getAndIncrement();
+        store(key, object);
+        return key;
+    }
+
+    /**
+     * Takes the key right away and writes the object on an I/O thread, the future completes
+     * when the object is stored.
+     */
+    @Override
+    public CompletableFuture<Long> putAsync(Serializable object) {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        long key = nextId.getAndIncrement();
+        return asyncIo.submit(() -> {
+            store(key, object);
+            return key;
+        });
+    }
+
+    /**
+     * Streams the value into the filesystem tier chunk by chunk if the tier is enabled. The upper tiers
+     * get the value only if it is read with get.
+     */
+    @Override
+    public long putStream(InputStream stream, long length) throws IOException {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        if (filesystemTier == null) {
+            return MyCache.super.putStream(stream, length);
+        }
+        long key = nextId.getAndIncrement();
+        filesystemTier.putStream(key, stream, length);
         if ("time-to-live".equals(expirationPolicy) || "time-to-idle".equals(expirationPolicy)) {
-            putTier.setDeadline(nextId, System.currentTimeMillis() + expirationMillis);
+            filesystemTier.setDeadline(key, System.currentTimeMillis() + expirationMillis);
+        }
+        return key;
+    }
+
+    /**
+     * Reads the value from the tier that has it, the filesystem tier reads a streamed value chunk by chunk.
+     * The entry stays in that tier.
+     */
+    @Override
+    public InputStream getStream(long key) {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        for (CacheTier tier : tiers) {
+            InputStream stream = tier.getStream(key);
+            if (stream != null) {
+                if ("time-to-idle".equals(expirationPolicy)) {
+                    tier.setDeadline(key, System.currentTimeMillis() + expirationMillis);
+                }
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    private void store(long key, Serializable object) {
+        CacheTier putTier = putToBottom ? tiers.get(tiers.size() - 1) : tiers.get(0);
+        synchronized (lockOf(key)) {
+            if ("time-to-live".equals(expirationPolicy) || "time-to-idle".equals(expirationPolicy)) {
+                putTier.put(key, object, System.currentTimeMillis() + expirationMillis);
+            } else {
+                putTier.put(key, object);
+            }
         }
-        return nextId++;
     }
 
     @Override
@@ -70,32 +165,92 @@ public class MyCacheSimpleImpl implements MyCache {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
         }
-        Object result = null;
-        if (memoryTierEnabled) {
-            result = levelOne.get(key);
-        }
-        if (result == null && filesystemTierEnabled) {
-            result = levelTwo.get(key);
-            if (result != null && memoryTierEnabled) {
-                levelOne.put(key, (Serializable) result);
-                levelOne.setDeadline(key, levelTwo.getDeadline(key));
-                levelOne.setWeight(key, levelTwo.getWeight(key));
+        return lookUp(key, 0);
+    }
+
+    /**
+     * Answers a hit of the in-memory tier on the calling thread, the lower tiers are searched on an I/O thread.
+     */
+    @Override
+    public CompletableFuture<Object> getAsync(long key) {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        CacheTier topTier = tiers.get(0);
+        if (!(topTier instanceof CacheTierMemory)) {
+            return asyncIo.submit(() -> lookUp(key, 0));
+        }
+        Object result = topTier.get(key);
+        if (result == null) {
+            return tiers.size() == 1 ? CompletableFuture.completedFuture(null)
+                    : asyncIo.submit(() -> lookUp(key, 1));
+        }
+        if ("time-to-idle".equals(expirationPolicy)) {
+            topTier.setDeadline(key, System.currentTimeMillis() + expirationMillis);
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /**
+     * Writes the value in the format of cache.serializer. Tiers keeping the value in that format write the stored
+     * bytes, the filesystem tier lets the file channel transfer them. The entry stays in the tier that has it.
+     */
+    @Override
+    public long transferTo(long key, WritableByteChannel target) throws IOException {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        for (CacheTier tier : tiers) {
+            long length = tier.transferValue(key, target, serializer);
+            if (length >= 0) {
+                if ("time-to-idle".equals(expirationPolicy)) {
+                    tier.setDeadline(key, System.currentTimeMillis() + expirationMillis);
+                }
+                return length;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A hit of the top tier is answered without the key lock, the lower tiers are searched and the entry is copied
+     * to the top holding it.
+     */
+    private Object lookUp(long key, int firstTier) {
+        CacheTier topTier = tiers.get(0);
+        Object result = firstTier == 0 ? topTier.get(key) : null;
+        if (result == null && tiers.size() > 1) {
+            synchronized (lockOf(key)) {
+                for (CacheTier tier : tiers.subList(Math.max(firstTier, 1), tiers.size())) {
+                    result = tier.get(key);
+                    if (result != null) {
+                        topTier.put(key, (Serializable) result, tier.getDeadline(key));
+                        topTier.setWeight(key, tier.getWeight(key));
+                        break;
+                    }
+                }
             }
         }
         if (result != null && "time-to-idle".equals(expirationPolicy)) {
-            levelOne.setDeadline(key, System.currentTimeMillis() + expirationMillis);
+            topTier.setDeadline(key, System.currentTimeMillis() + expirationMillis);
         }
         return result;
     }
 
+    private Object lockOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return keyLocks[(int) ((h ^ (h >>> 32)) & Integer.MAX_VALUE) % keyLocks.length];
+    }
+
     @Override
     public void clear() {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
         }
-        if (memoryTierEnabled) levelOne.clear();
-        if (filesystemTierEnabled) levelTwo.clear();
-        nextId = 0;
+        for (CacheTier tier : tiers) {
+            tier.clear();
+        }
+        nextId.set(0);
     }
 
     @Override
@@ -103,8 +258,22 @@ public class MyCacheSimpleImpl implements MyCache {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
         }
-        if (memoryTierEnabled) levelOne.remove(key);
-        if (filesystemTierEnabled) levelTwo.remove(key);
+        synchronized (lockOf(key)) {
+            for (CacheTier tier : tiers) {
+                tier.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> removeAsync(long key) {
+        if (!open) {
+            throw new IllegalStateException("The cache is closed!");
+        }
+        return asyncIo.submit(() -> {
+            remove(key);
+            return null;
+        });
     }
 
     @Override
@@ -113,10 +282,14 @@ public class MyCacheSimpleImpl implements MyCache {
             throw new IllegalStateException("The cache is closed!");
         }
 
-        if (memoryTierEnabled) levelOne.close();
-        levelOne = null;
-        if (filesystemTierEnabled) levelTwo.close();
-        levelTwo = null;
+        asyncIo.close();
+        if (filesystemTier != null) {
+            filesystemTier.setNextKey(nextId.get());
+        }
+        for (CacheTier tier : tiers) {
+            tier.close();
+        }
+        tiers = null;
         open = false;
     }
 
@@ -125,7 +298,11 @@ public class MyCacheSimpleImpl implements MyCache {
         if (!open) {
             throw new IllegalStateException("The cache is closed!");
         }
-        return (memoryTierEnabled && levelOne.containsKey(key))
-                || (filesystemTierEnabled && levelTwo.containsKey(key));
+        for (CacheTier tier : tiers) {
+            if (tier.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
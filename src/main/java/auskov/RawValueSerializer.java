@@ -0,0 +1,29 @@
+package auskov;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+
+/**
+ * Stores byte arrays as they are, for caches of already encoded values. Other values are rejected.
+ */
+final class RawValueSerializer implements ValueSerializer {
+
+    @Override
+    public byte[] serialize(Serializable value) throws NotSerializableException {
+        if (!(value instanceof byte[])) {
+            throw new NotSerializableException("The raw serializer accepts only byte arrays, not "
+                    + value.getClass().getName());
+        }
+        return (byte[]) value;
+    }
+
+    @Override
+    public Object deserialize(byte[] data) {
+        return data;
+    }
+
+    @Override
+    public boolean hasSameFormat(ValueSerializer other) {
+        return other instanceof RawValueSerializer;
+    }
+}
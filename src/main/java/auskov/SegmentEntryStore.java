@@ -0,0 +1,1407 @@
+package auskov;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Log-structured storage engine. Records are appended to segment files of a bounded size and an in-memory index
+ * maps a key to the segment and offset of its record. The weight and the deadline are fixed-width fields
+ * of the record header updated in place, a removed record is only marked dead, and a segment file is deleted
+ * once all its records are dead. In the mapped mode a segment is mapped into memory once it is full, and values
+ * of its records are read from the mapping instead of the file. A background compactor copies the live records
+ * of a full segment with too much dead space to the active one, a record at a time and at a limited rate,
+ * so the segment can be deleted while the store keeps serving requests. On close the index is saved to a manifest,
+ * and a later store restores it from there, or from the record headers if the manifest is missing. A restored
+ * manifest is replaced with a dirty marker, so a store that isn't closed cleanly is restored from the headers.
+ * Restoring locks the directory, a second store can't restore it while the first one is open.
+ * <p>
+ * With a write buffer, appended records are collected in memory and written to the active segment in one
+ * sequential write when the buffer is full, the segment is rolled or the store is closed. Buffered records are
+ * read and updated in the buffer. The durability decides when the segment is forced to the device: never
+ * (none), after every buffer write (batch) or every sync interval (periodic).
+ * <p>
+ * A value written from a stream is stored as chunk records followed by a head record, so it is never held
+ * in memory as a whole and may be larger than a segment. The chunks are read one at a time.
+ */
+final class SegmentEntryStore implements FilesystemEntryStore {
+    private static final Logger LOG = Logger.getLogger(SegmentEntryStore.class.getName());
+
+    static final int HEADER_SIZE = 32;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int KEY_OFFSET = 8;
+    private static final int WEIGHT_OFFSET = 16;
+    private static final int DEADLINE_OFFSET = 24;
+    private static final int LIVE = 1;
+    private static final int DEAD = 0;
+    private static final int CHUNK = 2;
+    private static final int STREAMED = 3;
+    private static final int STREAMED_HEAD_SIZE = HEADER_SIZE + 20;
+    private static final int OFFSET_BITS = 40;
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final String MANIFEST_FILE = "segments.manifest";
+    private static final int MANIFEST_VERSION = 2;
+    private static final int DIRTY_MANIFEST = 0;
+    private static final String LOCK_FILE = "segments.lock";
+
+    /**
+     * Value written from a stream. Its chunk records carry the index of the chunk in the weight field
+     * and the id of the write in the deadline field of the header, the head record holds the id,
+     * the length and the chunk size.
+     */
+    private static final class ChunkedValue {
+        private final long writeId;
+        private final long length;
+        private final int chunkBytes;
+        private final long[] locations;
+
+        private ChunkedValue(long writeId, long length, int chunkBytes) {
+            this.writeId = writeId;
+            this.length = length;
+            this.chunkBytes = chunkBytes;
+            locations = new long[(int) ((length + chunkBytes - 1) / chunkBytes)];
+            Arrays.fill(locations, -1L);
+        }
+
+        private int chunkLength(int chunk) {
+            return (int) Math.min(chunkBytes, length - (long) chunk * chunkBytes);
+        }
+
+        private long storedBytes() {
+            long bytes = STREAMED_HEAD_SIZE;
+            for (int chunk = 0; chunk < locations.length; chunk++) {
+                bytes += HEADER_SIZE + chunkLength(chunk);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Segment file with its bookkeeping. Segment numbers grow with the order of writes and are never reused,
+     * so the restore can tell the later record of a key, while the table of segments holds only the live ones.
+     * A segment is pinned while a value is transferred from it without the lock, a segment deleted or closed
+     * meanwhile is retired and its file is released once the last transfer ends.
+     */
+    private static final class Segment {
+        private final int number;
+        private final FileChannel channel;
+        private MappedByteBuffer mapping;
+        private long size;
+        private long liveBytes;
+        private int pins;
+        private boolean retired;
+        private boolean deleted;
+
+        private Segment(int number, FileChannel channel) {
+            this.number = number;
+            this.channel = channel;
+        }
+    }
+
+    private final File storageDir;
+    private final long segmentBytes;
+    private final ValueSerializer serializer;
+    private final boolean mapped;
+    private final int compactionDeadPercent;
+    private final long compactionBytesPerSecond;
+    private final ByteBuffer writeBuffer;
+    private final String durability;
+    private final long syncIntervalMillis;
+    private final int chunkBytes;
+    private final Map<Long, ChunkedValue> writingValues = new HashMap<>();
+    private long clearCount;
+    private final LongEntryTable segments = new LongEntryTable();
+    private int nextSegment;
+    private final LongEntryTable index = new LongEntryTable();
+    private long[] locations = new long[index.slotCapacity()];
+    private int activeSegment = -1;
+    private long activeSize;
+    private final Thread compactor;
+    private final Thread syncer;
+    private boolean closing;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    SegmentEntryStore(File storageDir, long segmentBytes) {
+        this(storageDir, segmentBytes, false);
+    }
+
+    SegmentEntryStore(File storageDir, long segmentBytes, boolean mapped) {
+        this(storageDir, segmentBytes, new JavaValueSerializer(), mapped, 0, 0, 0, "none", 0, 1 << 20);
+    }
+
+    /**
+     * @param compactionDeadPercent    share of dead bytes that makes a full segment a compaction candidate,
+     *                                 0 disables the compaction
+     * @param compactionBytesPerSecond limit of the compactor I/O, 0 means no limit
+     * @param writeBufferBytes         size of the write buffer, 0 writes every record right away
+     * @param durability               none, batch or periodic
+     * @param syncIntervalMillis       period of the flushes and syncs of the periodic durability
+     * @param chunkBytes               size of the chunks of the values written from a stream
+     */
+    SegmentEntryStore(File storageDir, long segmentBytes, ValueSerializer serializer, boolean mapped,
+                      int compactionDeadPercent, long compactionBytesPerSecond, int writeBufferBytes,
+                      String durability, long syncIntervalMillis, int chunkBytes) {
+        this.storageDir = storageDir;
+        this.segmentBytes = segmentBytes;
+        this.serializer = serializer;
+        this.mapped = mapped;
+        this.compactionDeadPercent = compactionDeadPercent;
+        this.compactionBytesPerSecond = compactionBytesPerSecond;
+        this.writeBuffer = writeBufferBytes > 0 ? ByteBuffer.allocate(writeBufferBytes) : null;
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.chunkBytes = chunkBytes;
+        if (compactionDeadPercent > 0) {
+            compactor = new Thread(this::compactSegments, "cache-segment-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        } else {
+            compactor = null;
+        }
+        if ("periodic".equals(durability)) {
+            syncer = new Thread(this::syncPeriodically, "cache-segment-syncer");
+            syncer.setDaemon(true);
+            syncer.start();
+        } else {
+            syncer = null;
+        }
+    }
+
+    @Override
+    public synchronized void write(long key, Serializable object) {
+        byte[] data = serialize(object);
+        if (data == null) {
+            return;
+        }
+        delete(key);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + data.length);
+        record.putInt(LIVE).putInt(data.length).putLong(key).putLong(0L).putLong(Long.MAX_VALUE).put(data);
+        record.flip();
+        try {
+            long location = append(record);
+            int slot = index.add(key, null);
+            if (locations.length < index.slotCapacity()) {
+                locations = Arrays.copyOf(locations, index.slotCapacity());
+            }
+            locations[slot] = location;
+            index.setSize(slot, record.capacity());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to append the entry " + key + " to a segment", e);
+        }
+    }
+
+    @Override
+    public synchronized Object readValue(long key) {
+        int slot = index.find(key);
+        if (slot < 0) {
+            return null;
+        }
+        if (index.value(slot) != null) {
+            return readChunks((ChunkedValue) index.value(slot));
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) index.size(slot) - HEADER_SIZE);
+        int segment = (int) (locations[slot] >>> OFFSET_BITS);
+        MappedByteBuffer mapping = liveSegment(segment).mapping;
+        if (mapping != null) {
+            ByteBuffer view = mapping.duplicate();
+            view.position((int) offsetOf(slot) + HEADER_SIZE);
+            view.limit(view.position() + data.capacity());
+            data.put(view);
+        } else {
+            try {
+                readAt(segment, data, offsetOf(slot) + HEADER_SIZE);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to read the entry " + key + " from a segment", e);
+                return null;
+            }
+        }
+        try {
+            return serializer.deserialize(data.array());
+        } catch (IOException | ClassNotFoundException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the object of the entry " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * Finds the value under the lock and sends it to the target without holding the lock, so a slow target
+     * doesn't stall the store.
+     */
+    @Override
+    public long transferValue(long key, WritableByteChannel target) throws IOException {
+        ChunkedValue chunked;
+        Payload payload = null;
+        synchronized (this) {
+            int slot = index.find(key);
+            if (slot < 0) {
+                return -1;
+            }
+            chunked = (ChunkedValue) index.value(slot);
+            if (chunked == null) {
+                payload = pinPayload(locations[slot], (int) index.size(slot) - HEADER_SIZE);
+            }
+        }
+        return chunked != null ? transferChunks(key, chunked, target) : sendPayload(payload, target);
+    }
+
+    /**
+     * Appends the chunks one by one, reading the next chunk from the stream without holding the lock,
+     * and makes the entry visible with the head record once the stream has given exactly the length.
+     */
+    @Override
+    public void writeStream(long key, InputStream stream, long length) throws IOException {
+        ChunkedValue value = new ChunkedValue(ThreadLocalRandom.current().nextLong(), length, chunkBytes);
+        long clears;
+        synchronized (this) {
+            writingValues.put(value.writeId, value);
+            clears = clearCount;
+        }
+        boolean stored = false;
+        try {
+            byte[] chunk = new byte[(int) Math.min(chunkBytes, length)];
+            for (int i = 0; i < value.locations.length; i++) {
+                int chunkLength = value.chunkLength(i);
+                readFromStream(stream, chunk, chunkLength, key, length);
+                ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + chunkLength);
+                record.putInt(CHUNK).putInt(chunkLength).putLong(key).putLong(i).putLong(value.writeId)
+                        .put(chunk, 0, chunkLength);
+                record.flip();
+                synchronized (this) {
+                    checkNotCleared(clears, key);
+                    value.locations[i] = append(record);
+                }
+            }
+            if (stream.read() >= 0) {
+                throw new IOException("The stream of the entry " + key + " is longer than " + length + " bytes");
+            }
+            ByteBuffer head = ByteBuffer.allocate(STREAMED_HEAD_SIZE);
+            head.putInt(STREAMED).putInt(STREAMED_HEAD_SIZE - HEADER_SIZE).putLong(key).putLong(0L)
+                    .putLong(Long.MAX_VALUE).putLong(value.writeId).putLong(length).putInt(chunkBytes);
+            head.flip();
+            synchronized (this) {
+                checkNotCleared(clears, key);
+                delete(key);
+                long location = append(head);
+                int slot = index.add(key, value);
+                if (locations.length < index.slotCapacity()) {
+                    locations = Arrays.copyOf(locations, index.slotCapacity());
+                }
+                locations[slot] = location;
+                index.setSize(slot, value.storedBytes());
+                stored = true;
+            }
+        } finally {
+            synchronized (this) {
+                writingValues.remove(value.writeId);
+                if (!stored && clears == clearCount) {
+                    releaseChunks(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a stream reading the chunks of a value written from a stream one at a time, or null if there is
+     * no such entry or it was written as an object. Reading fails if the entry is removed or replaced meanwhile.
+     */
+    @Override
+    public synchronized InputStream readStream(long key) {
+        int slot = index.find(key);
+        if (slot < 0 || index.value(slot) == null) {
+            return null;
+        }
+        ChunkedValue value = (ChunkedValue) index.value(slot);
+        return new InputStream() {
+            private int nextChunk;
+            private ByteBuffer chunk = ByteBuffer.allocate(0);
+
+            @Override
+            public int read() throws IOException {
+                return fillChunk() ? chunk.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!fillChunk()) {
+                    return -1;
+                }
+                int count = Math.min(length, chunk.remaining());
+                chunk.get(buffer, offset, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return chunk.remaining();
+            }
+
+            private boolean fillChunk() throws IOException {
+                if (chunk.hasRemaining()) {
+                    return true;
+                }
+                if (nextChunk == value.locations.length) {
+                    return false;
+                }
+                chunk = readChunk(key, value, nextChunk++);
+                return true;
+            }
+        };
+    }
+
+    private synchronized ByteBuffer readChunk(long key, ChunkedValue value, int chunk) throws IOException {
+        checkStillStored(key, value);
+        ByteBuffer data = ByteBuffer.allocate(value.chunkLength(chunk));
+        readPayload(value.locations[chunk], data);
+        data.flip();
+        return data;
+    }
+
+    private byte[] readChunks(ChunkedValue value) {
+        if (value.length > Integer.MAX_VALUE - 8) {
+            LOG.warning("The value of " + value.length + " bytes doesn't fit into an array, read it as a stream");
+            return null;
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) value.length);
+        try {
+            for (int chunk = 0; chunk < value.locations.length; chunk++) {
+                data.limit(data.position() + value.chunkLength(chunk));
+                readPayload(value.locations[chunk], data);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the chunks of a value", e);
+            return null;
+        }
+        return data.array();
+    }
+
+    /**
+     * Writes the chunks as they are if the values are stored raw, and the serialized array otherwise.
+     * The chunks are sent one by one without the lock, and sending fails if the entry is removed or replaced
+     * meanwhile.
+     */
+    private long transferChunks(long key, ChunkedValue value, WritableByteChannel target) throws IOException {
+        if (!(serializer instanceof RawValueSerializer)) {
+            byte[] data;
+            synchronized (this) {
+                checkStillStored(key, value);
+                data = readChunks(value);
+            }
+            if (data == null) {
+                throw new IOException("Failed attempt to read the entry " + key);
+            }
+            return CacheTier.writeFully(ByteBuffer.wrap(serializer.serialize(data)), target);
+        }
+        for (int chunk = 0; chunk < value.locations.length; chunk++) {
+            Payload payload;
+            synchronized (this) {
+                checkStillStored(key, value);
+                payload = pinPayload(value.locations[chunk], value.chunkLength(chunk));
+            }
+            sendPayload(payload, target);
+        }
+        return value.length;
+    }
+
+    /**
+     * Value of a record captured under the lock: a copy of the bytes still in the write buffer, a view
+     * of the mapping or the position in the file. The segment of the last two is pinned.
+     */
+    private static final class Payload {
+        private final Segment segment;
+        private final ByteBuffer data;
+        private final long position;
+        private final int length;
+
+        private Payload(Segment segment, ByteBuffer data, long position, int length) {
+            this.segment = segment;
+            this.data = data;
+            this.position = position;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Captures the value of the record at the location. The caller holds the lock and must send the payload.
+     */
+    private Payload pinPayload(long location, int length) {
+        int segment = (int) (location >>> OFFSET_BITS);
+        long position = (location & ((1L << OFFSET_BITS) - 1)) + HEADER_SIZE;
+        int buffered = bufferedPosition(segment, position);
+        if (buffered >= 0) {
+            ByteBuffer view = writeBuffer.duplicate();
+            view.limit(buffered + length);
+            view.position(buffered);
+            ByteBuffer copy = ByteBuffer.allocate(length).put(view);
+            copy.flip();
+            return new Payload(null, copy, position, length);
+        }
+        Segment pinned = liveSegment(segment);
+        pinned.pins++;
+        ByteBuffer view = null;
+        if (pinned.mapping != null) {
+            view = pinned.mapping.duplicate();
+            view.limit((int) position + length);
+            view.position((int) position);
+        }
+        return new Payload(pinned, view, position, length);
+    }
+
+    /**
+     * Sends the payload without holding the lock and unpins its segment.
+     */
+    private long sendPayload(Payload payload, WritableByteChannel target) throws IOException {
+        try {
+            if (payload.data != null) {
+                return CacheTier.writeFully(payload.data, target);
+            }
+            long transferred = 0;
+            while (transferred < payload.length) {
+                transferred += payload.segment.channel.transferTo(payload.position + transferred,
+                        payload.length - transferred, target);
+            }
+            return payload.length;
+        } finally {
+            if (payload.segment != null) {
+                unpin(payload.segment);
+            }
+        }
+    }
+
+    private synchronized void unpin(Segment segment) {
+        segment.pins--;
+        if (segment.pins == 0 && segment.retired) {
+            releaseSegment(segment);
+        }
+    }
+
+    private void checkStillStored(long key, ChunkedValue value) throws IOException {
+        int slot = index.find(key);
+        if (slot < 0 || index.value(slot) != value) {
+            throw new IOException("The entry " + key + " was removed while it was read");
+        }
+    }
+
+    /**
+     * Reads the value of the record at the location into the remaining space of the buffer.
+     */
+    private void readPayload(long location, ByteBuffer data) throws IOException {
+        int segment = (int) (location >>> OFFSET_BITS);
+        long position = (location & ((1L << OFFSET_BITS) - 1)) + HEADER_SIZE;
+        MappedByteBuffer mapping = liveSegment(segment).mapping;
+        if (mapping == null) {
+            readAt(segment, data, position);
+            return;
+        }
+        ByteBuffer view = mapping.duplicate();
+        view.position((int) position);
+        view.limit(view.position() + data.remaining());
+        data.put(view);
+    }
+
+    private void checkNotCleared(long clears, long key) throws IOException {
+        if (clears != clearCount) {
+            throw new IOException("The store was cleared while the entry " + key + " was written");
+        }
+    }
+
+    private void releaseChunks(ChunkedValue value) {
+        for (int chunk = 0; chunk < value.locations.length; chunk++) {
+            long location = value.locations[chunk];
+            if (location < 0) {
+                continue;
+            }
+            int segment = (int) (location >>> OFFSET_BITS);
+            try {
+                markDead(segment, location & ((1L << OFFSET_BITS) - 1));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to mark a chunk as removed", e);
+            }
+            releaseRecord(segment, HEADER_SIZE + value.chunkLength(chunk));
+        }
+    }
+
+    private static void readFromStream(InputStream stream, byte[] chunk, int length, long key, long valueLength)
+            throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int count = stream.read(chunk, offset, length - offset);
+            if (count < 0) {
+                throw new EOFException("The stream of the entry " + key + " is shorter than " + valueLength
+                        + " bytes");
+            }
+            offset += count;
+        }
+    }
+
+    @Override
+    public synchronized boolean contains(long key) {
+        return index.find(key) >= 0;
+    }
+
+    @Override
+    public synchronized long readWeight(long key) {
+        int slot = index.find(key);
+        return slot < 0 ? 0 : index.weight(slot);
+    }
+
+    @Override
+    public synchronized void writeWeight(long key, long weight) {
+        int slot = index.find(key);
+        if (slot >= 0) {
+            index.setWeight(slot, weight);
+            writeHeaderLong(slot, WEIGHT_OFFSET, weight);
+        }
+    }
+
+    @Override
+    public synchronized long readDeadline(long key) {
+        int slot = index.find(key);
+        return slot < 0 ? 0 : index.deadline(slot);
+    }
+
+    @Override
+    public synchronized void writeDeadline(long key, long deadline) {
+        int slot = index.find(key);
+        if (slot >= 0) {
+            index.setDeadline(slot, deadline);
+            writeHeaderLong(slot, DEADLINE_OFFSET, deadline);
+        }
+    }
+
+    @Override
+    public synchronized long entrySize(long key, ToLongFunction<File> fileLengthEvaluator) {
+        int slot = index.find(key);
+        return slot < 0 ? 0 : index.size(slot);
+    }
+
+    @Override
+    public synchronized void delete(long key) {
+        int slot = index.find(key);
+        if (slot < 0) {
+            return;
+        }
+        int segment = (int) (locations[slot] >>> OFFSET_BITS);
+        try {
+            markDead(segment, offsetOf(slot));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to mark the entry " + key + " as removed", e);
+        }
+        ChunkedValue chunked = (ChunkedValue) index.value(slot);
+        long size = chunked != null ? STREAMED_HEAD_SIZE : index.size(slot);
+        index.removeSlot(slot);
+        releaseRecord(segment, size);
+        if (chunked != null) {
+            releaseChunks(chunked);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (int slot = 0; slot < segments.slotLimit(); slot++) {
+            if (segments.isUsed(slot)) {
+                deleteSegment((Segment) segments.value(slot));
+            }
+        }
+        if (writeBuffer != null) {
+            writeBuffer.clear();
+        }
+        index.clear();
+        activeSegment = -1;
+        activeSize = 0;
+        clearCount++;
+    }
+
+    /**
+     * @throws IllegalStateException if another store has restored the directory and is still open
+     */
+    @Override
+    public synchronized void restore(LongConsumer restoredKeys) {
+        String[] fileNames = storageDir.list();
+        if (fileNames == null) {
+            return;
+        }
+        lockDirectory();
+        List<Segment> restored = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (fileName.startsWith(SEGMENT_FILE_PREFIX) && fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+                try {
+                    restored.add(openSegment(Integer.parseInt(fileName.substring(SEGMENT_FILE_PREFIX.length(),
+                            fileName.length() - SEGMENT_FILE_SUFFIX.length()))));
+                } catch (NumberFormatException | IOException e) {
+                    LOG.log(Level.WARNING, "Failed attempt to restore the segment " + fileName, e);
+                }
+            }
+        }
+        restored.sort((first, second) -> Integer.compare(first.number, second.number));
+        if (!restored.isEmpty()) {
+            nextSegment = restored.get(restored.size() - 1).number + 1;
+        }
+        File manifest = new File(storageDir, MANIFEST_FILE);
+        if (!manifest.exists() || !readManifest(manifest)) {
+            index.clear();
+            for (Segment segment : restored) {
+                segment.liveBytes = 0;
+            }
+            List<long[]> chunks = new ArrayList<>();
+            for (Segment segment : restored) {
+                scanSegment(segment.number, chunks);
+            }
+            try {
+                attachScannedChunks(chunks);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to restore the chunks of the values", e);
+            }
+        }
+        markManifestDirty();
+        for (Segment segment : restored) {
+            if (segment.liveBytes == 0) {
+                deleteSegment(segment);
+            } else if (mapped) {
+                try {
+                    segment.mapping = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.channel.size());
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed attempt to map the segment " + segment.number, e);
+                }
+            }
+        }
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (index.isUsed(slot)) {
+                restoredKeys.accept(index.key(slot));
+            }
+        }
+        if (compactor != null) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        for (Thread thread : new Thread[]{compactor, syncer}) {
+            if (thread != null) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        closeSegments();
+    }
+
+    private synchronized void closeSegments() {
+        if (index.size() > 0) {
+            try {
+                flushWriteBuffer();
+                if (!"none".equals(durability)) {
+                    liveSegment(activeSegment).channel.force(false);
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to write the buffered records", e);
+            }
+            writeManifest();
+        } else {
+            new File(storageDir, MANIFEST_FILE).delete();
+        }
+        unlockDirectory();
+        for (int slot = 0; slot < segments.slotLimit(); slot++) {
+            if (segments.isUsed(slot)) {
+                Segment segment = (Segment) segments.value(slot);
+                segment.retired = true;
+                if (segment.pins == 0) {
+                    releaseSegment(segment);
+                }
+            }
+        }
+        segments.clear();
+    }
+
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Total length of the segment files, the live records and the dead space between them.
+     */
+    synchronized long storedBytes() {
+        long bytes = 0;
+        for (int slot = 0; slot < segments.slotLimit(); slot++) {
+            if (segments.isUsed(slot)) {
+                bytes += ((Segment) segments.value(slot)).size;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the segment and the offset of the appended record packed in a long
+     */
+    private long append(ByteBuffer record) throws IOException {
+        if (activeSegment < 0 || activeSize > 0 && activeSize + record.remaining() > segmentBytes) {
+            rollSegment();
+        }
+        Segment active = liveSegment(activeSegment);
+        long offset = activeSize;
+        int length = record.remaining();
+        if (writeBuffer != null && length <= writeBuffer.capacity()) {
+            if (length > writeBuffer.remaining()) {
+                flushWriteBuffer();
+            }
+            writeBuffer.put(record);
+        } else {
+            flushWriteBuffer();
+            writeFully(active.channel, record, offset);
+            if ("batch".equals(durability)) {
+                active.channel.force(false);
+            }
+        }
+        activeSize += length;
+        active.size = activeSize;
+        active.liveBytes += length;
+        return ((long) activeSegment << OFFSET_BITS) | offset;
+    }
+
+    /**
+     * Writes the buffered records to the end of the active segment in one write.
+     */
+    private void flushWriteBuffer() throws IOException {
+        if (writeBuffer == null || writeBuffer.position() == 0) {
+            return;
+        }
+        FileChannel channel = liveSegment(activeSegment).channel;
+        writeBuffer.flip();
+        writeFully(channel, writeBuffer, activeSize - writeBuffer.remaining());
+        writeBuffer.clear();
+        if ("batch".equals(durability)) {
+            channel.force(false);
+        }
+    }
+
+    private void syncPeriodically() {
+        long nextSync = System.currentTimeMillis() + syncIntervalMillis;
+        synchronized (this) {
+            while (!closing) {
+                long now = System.currentTimeMillis();
+                if (now < nextSync) {
+                    try {
+                        wait(nextSync - now);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    continue;
+                }
+                nextSync = now + syncIntervalMillis;
+                if (activeSegment >= 0) {
+                    try {
+                        flushWriteBuffer();
+                        liveSegment(activeSegment).channel.force(false);
+                    } catch (IOException e) {
+                        LOG.log(Level.WARNING, "Failed attempt to sync the active segment", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position in the write buffer of a segment position, or -1 if the position is in the file.
+     */
+    private int bufferedPosition(int segment, long position) {
+        if (writeBuffer == null || writeBuffer.position() == 0 || segment != activeSegment) {
+            return -1;
+        }
+        long bufferStart = activeSize - writeBuffer.position();
+        return position >= bufferStart ? (int) (position - bufferStart) : -1;
+    }
+
+    private void readAt(int segment, ByteBuffer buffer, long position) throws IOException {
+        int buffered = bufferedPosition(segment, position);
+        if (buffered < 0) {
+            readFully(liveSegment(segment).channel, buffer, position);
+            return;
+        }
+        ByteBuffer view = writeBuffer.duplicate();
+        view.position(buffered);
+        view.limit(buffered + buffer.remaining());
+        buffer.put(view);
+    }
+
+    private void writeAt(int segment, ByteBuffer buffer, long position) throws IOException {
+        int buffered = bufferedPosition(segment, position);
+        if (buffered < 0) {
+            writeFully(liveSegment(segment).channel, buffer, position);
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            writeBuffer.put(buffered++, buffer.get());
+        }
+    }
+
+    private void markDead(int segment, long offset) throws IOException {
+        ByteBuffer status = ByteBuffer.allocate(4).putInt(DEAD);
+        status.flip();
+        writeAt(segment, status, offset);
+    }
+
+    private void releaseRecord(int segment, long size) {
+        Segment released = liveSegment(segment);
+        released.liveBytes -= size;
+        if (released.liveBytes == 0 && segment != activeSegment) {
+            deleteSegment(released);
+        } else if (compactor != null && segment != activeSegment && isCompactionCandidate(released)) {
+            notifyAll();
+        }
+    }
+
+    private boolean isCompactionCandidate(Segment segment) {
+        long deadBytes = segment.size - segment.liveBytes;
+        return deadBytes * 100 >= segment.size * compactionDeadPercent;
+    }
+
+    private void compactSegments() {
+        while (true) {
+            int segment;
+            synchronized (this) {
+                segment = nextCompactionCandidate();
+                while (segment < 0 && !closing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    segment = nextCompactionCandidate();
+                }
+                if (closing) {
+                    return;
+                }
+            }
+            if (!compactSegment(segment)) {
+                return;
+            }
+        }
+    }
+
+    private int nextCompactionCandidate() {
+        Segment candidate = null;
+        for (int slot = 0; slot < segments.slotLimit(); slot++) {
+            Segment segment = segments.isUsed(slot) ? (Segment) segments.value(slot) : null;
+            if (segment != null && segment.number != activeSegment && isCompactionCandidate(segment)
+                    && (candidate == null || segment.liveBytes < candidate.liveBytes)) {
+                candidate = segment;
+            }
+        }
+        return candidate != null ? candidate.number : -1;
+    }
+
+    /**
+     * Moves the live records of the segment one by one. The lock is held only while a record is moved,
+     * and the compactor sleeps between the records to stay within the configured rate.
+     */
+    private boolean compactSegment(int segment) {
+        long start = System.nanoTime();
+        long processedBytes = 0;
+        long offset = 0;
+        while (true) {
+            int recordLength;
+            synchronized (this) {
+                Segment compacted = liveSegment(segment);
+                if (closing || compacted == null || offset >= compacted.size) {
+                    return true;
+                }
+                try {
+                    recordLength = moveRecord(segment, offset);
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "Failed attempt to compact the segment " + segment
+                            + ", the compaction is stopped", e);
+                    return false;
+                }
+            }
+            offset += recordLength;
+            processedBytes += recordLength;
+            if (compactionBytesPerSecond > 0) {
+                long aheadNanos = processedBytes * 1_000_000_000L / compactionBytesPerSecond
+                        - (System.nanoTime() - start);
+                if (aheadNanos > 0) {
+                    try {
+                        Thread.sleep(aheadNanos / 1_000_000L, (int) (aheadNanos % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        return false;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the record at the offset to the active segment if the index still points to it.
+     *
+     * @return the length of the record
+     */
+    private int moveRecord(int segment, long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readAt(segment, header, offset);
+        int recordLength = HEADER_SIZE + header.getInt(LENGTH_OFFSET);
+        long location = (long) segment << OFFSET_BITS | offset;
+        int status = header.getInt(0);
+        if (status == CHUNK) {
+            ChunkedValue owner = chunkOwner(header.getLong(KEY_OFFSET), header.getLong(DEADLINE_OFFSET));
+            int chunk = (int) header.getLong(WEIGHT_OFFSET);
+            if (owner == null || chunk < 0 || chunk >= owner.locations.length || owner.locations[chunk] != location) {
+                return recordLength;
+            }
+            owner.locations[chunk] = copyRecord(segment, offset, recordLength);
+        } else {
+            int slot = index.find(header.getLong(KEY_OFFSET));
+            if (status != LIVE && status != STREAMED || slot < 0 || locations[slot] != location) {
+                return recordLength;
+            }
+            locations[slot] = copyRecord(segment, offset, recordLength);
+        }
+        releaseRecord(segment, recordLength);
+        return recordLength;
+    }
+
+    /**
+     * Appends a copy of the record and marks the original as dead.
+     */
+    private long copyRecord(int segment, long offset, int recordLength) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(recordLength);
+        readAt(segment, record, offset);
+        record.flip();
+        long location = append(record);
+        markDead(segment, offset);
+        return location;
+    }
+
+    /**
+     * Finds the value being written or stored the chunk with the write id belongs to.
+     */
+    private ChunkedValue chunkOwner(long key, long writeId) {
+        ChunkedValue owner = writingValues.get(writeId);
+        if (owner != null) {
+            return owner;
+        }
+        int slot = index.find(key);
+        if (slot >= 0 && index.value(slot) != null && ((ChunkedValue) index.value(slot)).writeId == writeId) {
+            return (ChunkedValue) index.value(slot);
+        }
+        return null;
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        Segment segment = new Segment(number, new RandomAccessFile(segmentFile(number), "rw").getChannel());
+        segment.size = segment.channel.size();
+        segments.add(number, segment);
+        return segment;
+    }
+
+    /**
+     * @return the live segment with the number, or null if it was deleted
+     */
+    private Segment liveSegment(int segment) {
+        int slot = segments.find(segment);
+        return slot < 0 ? null : (Segment) segments.value(slot);
+    }
+
+    private void addRestoredEntry(long key, long location, long size, long weight, long deadline,
+                                  ChunkedValue chunked) {
+        int slot = index.add(key, chunked);
+        if (locations.length < index.slotCapacity()) {
+            locations = Arrays.copyOf(locations, index.slotCapacity());
+        }
+        locations[slot] = location;
+        index.setSize(slot, size);
+        index.setWeight(slot, weight);
+        index.setDeadline(slot, deadline);
+        if (chunked == null) {
+            liveSegment((int) (location >>> OFFSET_BITS)).liveBytes += size;
+            return;
+        }
+        liveSegment((int) (location >>> OFFSET_BITS)).liveBytes += STREAMED_HEAD_SIZE;
+        for (int chunk = 0; chunk < chunked.locations.length; chunk++) {
+            if (chunked.locations[chunk] >= 0) {
+                liveSegment((int) (chunked.locations[chunk] >>> OFFSET_BITS)).liveBytes += HEADER_SIZE
+                        + chunked.chunkLength(chunk);
+            }
+        }
+    }
+
+    /**
+     * Saves the index to a temporary file and renames it, so a crash never leaves a half-written manifest.
+     */
+    private void writeManifest() {
+        File temporary = new File(storageDir, MANIFEST_FILE + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            stream.writeInt(MANIFEST_VERSION);
+            stream.writeInt(index.size());
+            for (int slot = 0; slot < index.slotLimit(); slot++) {
+                if (index.isUsed(slot)) {
+                    stream.writeLong(index.key(slot));
+                    stream.writeLong(locations[slot]);
+                    stream.writeLong(index.size(slot));
+                    stream.writeLong(index.weight(slot));
+                    stream.writeLong(index.deadline(slot));
+                    ChunkedValue chunked = (ChunkedValue) index.value(slot);
+                    stream.writeBoolean(chunked != null);
+                    if (chunked != null) {
+                        stream.writeLong(chunked.writeId);
+                        stream.writeLong(chunked.length);
+                        stream.writeInt(chunked.chunkBytes);
+                        for (long chunkLocation : chunked.locations) {
+                            stream.writeLong(chunkLocation);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to write the manifest of the segments", e);
+            temporary.delete();
+            return;
+        }
+        replaceManifest(temporary);
+    }
+
+    /**
+     * Replaces the manifest with one holding only the dirty marker. The index changes from now on, so the manifest
+     * is valid again only once close writes it, until then a restore scans the record headers.
+     */
+    private void markManifestDirty() {
+        File temporary = new File(storageDir, MANIFEST_FILE + ".tmp");
+        try (DataOutputStream stream = new DataOutputStream(new FileOutputStream(temporary))) {
+            stream.writeInt(DIRTY_MANIFEST);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to mark the manifest of the segments dirty", e);
+            temporary.delete();
+            new File(storageDir, MANIFEST_FILE).delete();
+            return;
+        }
+        replaceManifest(temporary);
+    }
+
+    private void replaceManifest(File temporary) {
+        try {
+            Files.move(temporary.toPath(), new File(storageDir, MANIFEST_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to replace the manifest of the segments", e);
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Holds a lock on the lock file of the directory until close. If the lock file can't be opened, the directory
+     * is used without the lock.
+     */
+    private void lockDirectory() {
+        try {
+            lockChannel = FileChannel.open(new File(storageDir, LOCK_FILE).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to lock the storage directory " + storageDir, e);
+            return;
+        }
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to lock the storage directory " + storageDir, e);
+            closeQuietly(lockChannel);
+            lockChannel = null;
+            return;
+        }
+        if (lock == null) {
+            closeQuietly(lockChannel);
+            lockChannel = null;
+            throw new IllegalStateException("The storage directory " + storageDir + " is used by another cache!");
+        }
+    }
+
+    private void unlockDirectory() {
+        if (lock != null) {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed attempt to unlock the storage directory", e);
+            }
+            lock = null;
+        }
+        if (lockChannel != null) {
+            closeQuietly(lockChannel);
+            lockChannel = null;
+        }
+    }
+
+    /**
+     * @return false if the manifest can't be read or doesn't match the segments, the index is then incomplete
+     */
+    private boolean readManifest(File manifest) {
+        try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)))) {
+            if (stream.readInt() != MANIFEST_VERSION) {
+                return false;
+            }
+            int entries = stream.readInt();
+            for (int i = 0; i < entries; i++) {
+                long key = stream.readLong();
+                long location = stream.readLong();
+                long size = stream.readLong();
+                long weight = stream.readLong();
+                long deadline = stream.readLong();
+                ChunkedValue chunked = null;
+                if (stream.readBoolean()) {
+                    chunked = new ChunkedValue(stream.readLong(), stream.readLong(), stream.readInt());
+                    for (int chunk = 0; chunk < chunked.locations.length; chunk++) {
+                        chunked.locations[chunk] = stream.readLong();
+                        if (!isInSegment(chunked.locations[chunk], HEADER_SIZE + chunked.chunkLength(chunk))) {
+                            return false;
+                        }
+                    }
+                }
+                if (!isInSegment(location, chunked != null ? STREAMED_HEAD_SIZE : size)) {
+                    return false;
+                }
+                addRestoredEntry(key, location, size, weight, deadline, chunked);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to read the manifest of the segments", e);
+            return false;
+        }
+    }
+
+    private boolean isInSegment(long location, long size) {
+        Segment segment = location >= 0 ? liveSegment((int) (location >>> OFFSET_BITS)) : null;
+        return segment != null && (location & ((1L << OFFSET_BITS) - 1)) + size <= segment.size;
+    }
+
+    /**
+     * Indexes the live records of the segment reading only their headers. A key found again replaces its earlier
+     * record, and a record cut off by a crash ends the segment.
+     */
+    private void scanSegment(int segment, List<long[]> chunks) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long segmentSize = liveSegment(segment).size;
+        long offset = 0;
+        try {
+            while (offset + HEADER_SIZE <= segmentSize) {
+                header.clear();
+                readAt(segment, header, offset);
+                long recordLength = HEADER_SIZE + (long) header.getInt(LENGTH_OFFSET);
+                if (recordLength < HEADER_SIZE || offset + recordLength > segmentSize) {
+                    break;
+                }
+                long location = ((long) segment << OFFSET_BITS) | offset;
+                int status = header.getInt(0);
+                if (status == CHUNK) {
+                    chunks.add(new long[]{header.getLong(KEY_OFFSET), header.getLong(DEADLINE_OFFSET),
+                            header.getLong(WEIGHT_OFFSET), location, recordLength});
+                } else if (status == LIVE || status == STREAMED && recordLength == STREAMED_HEAD_SIZE) {
+                    long key = header.getLong(KEY_OFFSET);
+                    ChunkedValue chunked = null;
+                    if (status == STREAMED) {
+                        ByteBuffer head = ByteBuffer.allocate(STREAMED_HEAD_SIZE - HEADER_SIZE);
+                        readAt(segment, head, offset + HEADER_SIZE);
+                        chunked = new ChunkedValue(head.getLong(0), head.getLong(8), head.getInt(16));
+                    }
+                    int previous = index.find(key);
+                    if (previous >= 0) {
+                        dropScannedEntry(previous);
+                    }
+                    addRestoredEntry(key, location, recordLength, header.getLong(WEIGHT_OFFSET),
+                            header.getLong(DEADLINE_OFFSET), chunked);
+                }
+                offset += recordLength;
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to scan the segment " + segment, e);
+        }
+    }
+
+    /**
+     * Gives the scanned values written from streams their chunks. A value missing a chunk is dropped,
+     * and the chunks no value claims are marked as dead.
+     */
+    private void attachScannedChunks(List<long[]> chunks) throws IOException {
+        Map<Long, ChunkedValue> values = new HashMap<>();
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            if (index.isUsed(slot) && index.value(slot) != null) {
+                values.put(((ChunkedValue) index.value(slot)).writeId, (ChunkedValue) index.value(slot));
+            }
+        }
+        List<Long> deadChunks = new ArrayList<>();
+        for (long[] chunk : chunks) {
+            ChunkedValue owner = values.get(chunk[1]);
+            int slot = index.find(chunk[0]);
+            if (owner == null || slot < 0 || index.value(slot) != owner || chunk[2] < 0
+                    || chunk[2] >= owner.locations.length || owner.locations[(int) chunk[2]] >= 0
+                    || chunk[4] != HEADER_SIZE + owner.chunkLength((int) chunk[2])) {
+                deadChunks.add(chunk[3]);
+            } else {
+                owner.locations[(int) chunk[2]] = chunk[3];
+            }
+        }
+        for (int slot = 0; slot < index.slotLimit(); slot++) {
+            ChunkedValue chunked = index.isUsed(slot) ? (ChunkedValue) index.value(slot) : null;
+            if (chunked == null) {
+                continue;
+            }
+            boolean complete = true;
+            for (long location : chunked.locations) {
+                complete &= location >= 0;
+            }
+            if (complete) {
+                for (int chunk = 0; chunk < chunked.locations.length; chunk++) {
+                    liveSegment((int) (chunked.locations[chunk] >>> OFFSET_BITS)).liveBytes += HEADER_SIZE
+                            + chunked.chunkLength(chunk);
+                }
+                index.setSize(slot, chunked.storedBytes());
+                continue;
+            }
+            for (long location : chunked.locations) {
+                if (location >= 0) {
+                    deadChunks.add(location);
+                }
+            }
+            dropScannedEntry(slot);
+        }
+        for (long location : deadChunks) {
+            markDead((int) (location >>> OFFSET_BITS), location & ((1L << OFFSET_BITS) - 1));
+        }
+    }
+
+    /**
+     * Marks the head record of an entry found while scanning as dead and drops the entry. Its chunks,
+     * if any, are not counted as live yet.
+     */
+    private void dropScannedEntry(int slot) throws IOException {
+        int segment = (int) (locations[slot] >>> OFFSET_BITS);
+        markDead(segment, offsetOf(slot));
+        liveSegment(segment).liveBytes -= index.value(slot) != null ? STREAMED_HEAD_SIZE : index.size(slot);
+        index.removeSlot(slot);
+    }
+
+    private void rollSegment() throws IOException {
+        Segment previous = activeSegment >= 0 ? liveSegment(activeSegment) : null;
+        if (previous != null) {
+            flushWriteBuffer();
+            if ("periodic".equals(durability)) {
+                previous.channel.force(false);
+            }
+        }
+        activeSegment = openSegment(nextSegment++).number;
+        activeSize = 0;
+        if (previous == null) {
+            return;
+        }
+        if (previous.liveBytes == 0) {
+            deleteSegment(previous);
+            return;
+        }
+        if (mapped) {
+            previous.mapping = previous.channel.map(FileChannel.MapMode.READ_ONLY, 0, previous.channel.size());
+        }
+        if (compactor != null && isCompactionCandidate(previous)) {
+            notifyAll();
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.removeSlot(segments.find(segment.number));
+        segment.retired = true;
+        segment.deleted = true;
+        if (segment.pins == 0) {
+            releaseSegment(segment);
+        }
+    }
+
+    /**
+     * Unmaps and closes a retired segment no transfer uses anymore, and deletes its file if it was deleted.
+     */
+    private void releaseSegment(Segment segment) {
+        if (segment.mapping != null) {
+            DirectBuffers.free(segment.mapping);
+            segment.mapping = null;
+        }
+        closeQuietly(segment.channel);
+        if (segment.deleted) {
+            segmentFile(segment.number).delete();
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(storageDir, SEGMENT_FILE_PREFIX + segment + SEGMENT_FILE_SUFFIX);
+    }
+
+    private long offsetOf(int slot) {
+        return locations[slot] & ((1L << OFFSET_BITS) - 1);
+    }
+
+    private void writeHeaderLong(int slot, int fieldOffset, long value) {
+        ByteBuffer field = ByteBuffer.allocate(8).putLong(value);
+        field.flip();
+        try {
+            writeAt((int) (locations[slot] >>> OFFSET_BITS), field, offsetOf(slot) + fieldOffset);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to update the entry " + index.key(slot), e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of a segment at " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Failed attempt to close a segment", e);
+        }
+    }
+
+    private byte[] serialize(Serializable object) {
+        try {
+            return serializer.serialize(object);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to serialize the object", e);
+            return null;
+        }
+    }
+}
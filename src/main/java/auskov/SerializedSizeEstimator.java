@@ -0,0 +1,41 @@
+package auskov;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Estimates the size of a value as the length of its Java serialized form. The bytes are counted, not kept.
+ */
+public class SerializedSizeEstimator implements ToLongFunction<Serializable> {
+    private static final Logger LOG = Logger.getLogger(SerializedSizeEstimator.class.getName());
+
+    @Override
+    public long applyAsLong(Serializable object) {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (ObjectOutputStream stream = new ObjectOutputStream(counter)) {
+            stream.writeObject(object);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed attempt to estimate the size of the object", e);
+        }
+        return counter.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package auskov;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Slab allocator over direct ByteBuffers. Memory is split into pages of a fixed size, each page serves chunks
+ * of one power-of-two size class. A page is carved lazily: chunks that were never used are taken by a bump pointer,
+ * and freed chunks form a list threaded through the chunks themselves. A page that becomes empty returns
+ * to the shared pool, so memory can move between size classes.
+ * An allocation is addressed by a long holding the page number in the high half and the offset in the low half.
+ */
+final class SlabAllocator {
+    static final int MIN_CHUNK_SIZE = 64;
+    private static final int MIN_CHUNK_SHIFT = 6;
+    private static final int NIL = -1;
+
+    private final int pageSize;
+    private final int maxPages;
+    private final int classesCount;
+    private final ByteBuffer[] pages;
+    private final int[] pageClass;
+    private final int[] pageUsedChunks;
+    private final int[] pageFreeHead;
+    private final int[] pageBump;
+    private final int[] pageNextPartial;
+    private final int[] pagePrevPartial;
+    private final int[] classPartialHead;
+    private final int[] classPages;
+    private final int[] freePages;
+    private int freePagesCount;
+    private int createdPages;
+    private long usedBytes;
+
+    SlabAllocator(long maxBytes, int pageSize) {
+        this.pageSize = Integer.highestOneBit(Math.max(MIN_CHUNK_SIZE, pageSize));
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE, maxBytes / this.pageSize);
+        classesCount = Integer.numberOfTrailingZeros(this.pageSize) - MIN_CHUNK_SHIFT + 1;
+        pages = new ByteBuffer[maxPages];
+        pageClass = new int[maxPages];
+        pageUsedChunks = new int[maxPages];
+        pageFreeHead = new int[maxPages];
+        pageBump = new int[maxPages];
+        pageNextPartial = new int[maxPages];
+        pagePrevPartial = new int[maxPages];
+        classPartialHead = new int[classesCount];
+        classPages = new int[classesCount];
+        freePages = new int[maxPages];
+        Arrays.fill(classPartialHead, NIL);
+    }
+
+    int maxLength() {
+        return maxPages == 0 ? 0 : pageSize;
+    }
+
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    long capacity() {
+        return (long) maxPages * pageSize;
+    }
+
+    static int chunkSize(int length) {
+        return Math.max(MIN_CHUNK_SIZE, Integer.highestOneBit(Math.max(1, length) - 1) << 1);
+    }
+
+    static int sizeClass(int length) {
+        return Integer.numberOfTrailingZeros(chunkSize(length)) - MIN_CHUNK_SHIFT;
+    }
+
+    static int pageOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    int maxPages() {
+        return maxPages;
+    }
+
+    int classesCount() {
+        return classesCount;
+    }
+
+    /**
+     * Returns the number of pages serving chunks of the size class.
+     */
+    int pages(int sizeClass) {
+        return classPages[sizeClass];
+    }
+
+    long allocate(int length) {
+        if (length > maxLength()) {
+            return NIL;
+        }
+        int sizeClass = sizeClass(length);
+        int page = classPartialHead[sizeClass];
+        if (page == NIL) {
+            page = takeFreePage(sizeClass);
+            if (page == NIL) {
+                return NIL;
+            }
+        }
+        int chunkSize = chunkSizeOfClass(sizeClass);
+        int offset = pageFreeHead[page];
+        if (offset != NIL) {
+            pageFreeHead[page] = pages[page].getInt(offset);
+        } else {
+            offset = pageBump[page];
+            pageBump[page] += chunkSize;
+        }
+        pageUsedChunks[page]++;
+        if (isFull(page)) {
+            unlinkPartial(page);
+        }
+        usedBytes += chunkSize;
+        return ((long) page << 32) | offset;
+    }
+
+    void free(long address) {
+        int page = pageOf(address);
+        int offset = (int) address;
+        boolean wasFull = isFull(page);
+        pages[page].putInt(offset, pageFreeHead[page]);
+        pageFreeHead[page] = offset;
+        pageUsedChunks[page]--;
+        usedBytes -= chunkSizeOfClass(pageClass[page]);
+        if (pageUsedChunks[page] == 0) {
+            if (!wasFull) {
+                unlinkPartial(page);
+            }
+            classPages[pageClass[page]]--;
+            freePages[freePagesCount++] = page;
+        } else if (wasFull) {
+            linkPartial(page);
+        }
+    }
+
+    void write(long address, byte[] data) {
+        ByteBuffer buffer = pages[pageOf(address)].duplicate();
+        buffer.position((int) address);
+        buffer.put(data);
+    }
+
+    byte[] read(long address, int length) {
+        ByteBuffer buffer = pages[pageOf(address)].duplicate();
+        buffer.position((int) address);
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return data;
+    }
+
+    void clear() {
+        Arrays.fill(classPartialHead, NIL);
+        Arrays.fill(classPages, 0);
+        freePagesCount = 0;
+        for (int page = 0; page < createdPages; page++) {
+            freePages[freePagesCount++] = page;
+        }
+        usedBytes = 0;
+    }
+
+    /**
+     * Frees the memory of the pages right away, the allocator can't be used afterwards.
+     */
+    void release() {
+        for (int page = 0; page < createdPages; page++) {
+            ByteBuffer buffer = pages[page];
+            pages[page] = null;
+            DirectBuffers.free(buffer);
+        }
+        Arrays.fill(classPartialHead, NIL);
+        Arrays.fill(classPages, 0);
+        freePagesCount = 0;
+        createdPages = 0;
+        usedBytes = 0;
+    }
+
+    private int takeFreePage(int sizeClass) {
+        int page;
+        if (freePagesCount > 0) {
+            page = freePages[--freePagesCount];
+        } else if (createdPages < maxPages) {
+            page = createdPages++;
+            pages[page] = ByteBuffer.allocateDirect(pageSize);
+        } else {
+            return NIL;
+        }
+        pageClass[page] = sizeClass;
+        pageUsedChunks[page] = 0;
+        pageFreeHead[page] = NIL;
+        pageBump[page] = 0;
+        classPages[sizeClass]++;
+        linkPartial(page);
+        return page;
+    }
+
+    private boolean isFull(int page) {
+        return pageFreeHead[page] == NIL && pageBump[page] + chunkSizeOfClass(pageClass[page]) > pageSize;
+    }
+
+    private void linkPartial(int page) {
+        int sizeClass = pageClass[page];
+        int head = classPartialHead[sizeClass];
+        pageNextPartial[page] = head;
+        pagePrevPartial[page] = NIL;
+        if (head != NIL) {
+            pagePrevPartial[head] = page;
+        }
+        classPartialHead[sizeClass] = page;
+    }
+
+    private void unlinkPartial(int page) {
+        int next = pageNextPartial[page];
+        int prev = pagePrevPartial[page];
+        if (prev == NIL) {
+            classPartialHead[pageClass[page]] = next;
+        } else {
+            pageNextPartial[prev] = next;
+        }
+        if (next != NIL) {
+            pagePrevPartial[next] = prev;
+        }
+    }
+
+    private static int chunkSizeOfClass(int sizeClass) {
+        return MIN_CHUNK_SIZE << sizeClass;
+    }
+}
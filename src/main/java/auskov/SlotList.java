@@ -0,0 +1,96 @@
+package auskov;
+
+import java.util.Arrays;
+
+/**
+ * Doubly linked list of table slots kept in primitive arrays, ordered from the head (oldest) to the tail (newest).
+ */
+final class SlotList {
+    private static final int NIL = -1;
+
+    private int[] next;
+    private int[] prev;
+    private boolean[] linked;
+    private int head = NIL;
+    private int tail = NIL;
+    private int size;
+
+    SlotList(int slotCapacity) {
+        next = new int[slotCapacity];
+        prev = new int[slotCapacity];
+        linked = new boolean[slotCapacity];
+    }
+
+    void ensureCapacity(int slotCapacity) {
+        if (slotCapacity > next.length) {
+            next = Arrays.copyOf(next, slotCapacity);
+            prev = Arrays.copyOf(prev, slotCapacity);
+            linked = Arrays.copyOf(linked, slotCapacity);
+        }
+    }
+
+    boolean contains(int slot) {
+        return slot < linked.length && linked[slot];
+    }
+
+    int head() {
+        return head;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void addLast(int slot) {
+        prev[slot] = tail;
+        next[slot] = NIL;
+        if (tail == NIL) {
+            head = slot;
+        } else {
+            next[tail] = slot;
+        }
+        tail = slot;
+        linked[slot] = true;
+        size++;
+    }
+
+    void remove(int slot) {
+        if (!contains(slot)) {
+            return;
+        }
+        if (prev[slot] == NIL) {
+            head = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] == NIL) {
+            tail = prev[slot];
+        } else {
+            prev[next[slot]] = prev[slot];
+        }
+        linked[slot] = false;
+        size--;
+    }
+
+    void moveToLast(int slot) {
+        if (slot != tail) {
+            remove(slot);
+            addLast(slot);
+        }
+    }
+
+    int pollFirst() {
+        int first = head;
+        if (first != NIL) {
+            remove(first);
+        }
+        return first;
+    }
+
+    void clear() {
+        Arrays.fill(linked, false);
+        head = NIL;
+        tail = NIL;
+        size = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package auskov;
+
+/**
+ * Segmented LRU. New entries start in the probation segment, a second access moves them to the protected segment,
+ * which holds at most 80% of the entries and sends its least recently used entries back to probation.
+ * Victims are taken from probation first.
+ */
+final class SlruEvictionPolicy implements EvictionPolicy {
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final SlotList probation;
+    private final SlotList protectedSegment;
+
+    SlruEvictionPolicy(int slotCapacity) {
+        probation = new SlotList(slotCapacity);
+        protectedSegment = new SlotList(slotCapacity);
+    }
+
+    @Override
+    public void ensureCapacity(int slotCapacity) {
+        probation.ensureCapacity(slotCapacity);
+        protectedSegment.ensureCapacity(slotCapacity);
+    }
+
+    @Override
+    public void add(int slot, long key, long weight) {
+        probation.addLast(slot);
+    }
+
+    @Override
+    public void access(int slot) {
+        if (protectedSegment.contains(slot)) {
+            protectedSegment.moveToLast(slot);
+        } else if (probation.contains(slot)) {
+            probation.remove(slot);
+            protectedSegment.addLast(slot);
+            int protectedLimit = Math.max(1, (probation.size() + protectedSegment.size()) * PROTECTED_PERCENT / 100);
+            while (protectedSegment.size() > protectedLimit) {
+                probation.addLast(protectedSegment.pollFirst());
+            }
+        }
+    }
+
+    @Override
+    public void setWeight(int slot, long weight) {
+    }
+
+    @Override
+    public void halveWeights() {
+    }
+
+    @Override
+    public int victim() {
+        return probation.size() > 0 ? probation.head() : protectedSegment.head();
+    }
+
+    @Override
+    public void evict(int slot) {
+        remove(slot);
+    }
+
+    @Override
+    public void remove(int slot) {
+        probation.remove(slot);
+        protectedSegment.remove(slot);
+    }
+
+    @Override
+    public void clear() {
+        probation.clear();
+        protectedSegment.clear();
+    }
+}
@@ -0,0 +1,171 @@
+package auskov;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Spreads the entries over stores in different directories by the hash of the key, so every storage device
+ * gets its share of the I/O. Every stripe has its own lock, operations on different stripes don't wait
+ * for each other.
+ */
+final class StripedEntryStore implements FilesystemEntryStore {
+    private final List<FilesystemEntryStore> stripes;
+
+    StripedEntryStore(List<FilesystemEntryStore> stripes) {
+        this.stripes = new ArrayList<>(stripes);
+    }
+
+    @Override
+    public void write(long key, Serializable object) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.write(key, object);
+        }
+    }
+
+    @Override
+    public Object readValue(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.readValue(key);
+        }
+    }
+
+    @Override
+    public void writeStream(long key, InputStream stream, long length) throws IOException {
+        stripeOf(key).writeStream(key, stream, length);
+    }
+
+    @Override
+    public InputStream readStream(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.readStream(key);
+        }
+    }
+
+    @Override
+    public long transferValue(long key, WritableByteChannel target) throws IOException {
+        return stripeOf(key).transferValue(key, target);
+    }
+
+    @Override
+    public boolean contains(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.contains(key);
+        }
+    }
+
+    @Override
+    public long readWeight(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.readWeight(key);
+        }
+    }
+
+    @Override
+    public void writeWeight(long key, long weight) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.writeWeight(key, weight);
+        }
+    }
+
+    @Override
+    public long readDeadline(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.readDeadline(key);
+        }
+    }
+
+    @Override
+    public void writeDeadline(long key, long deadline) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.writeDeadline(key, deadline);
+        }
+    }
+
+    @Override
+    public long entrySize(long key, ToLongFunction<File> fileLengthEvaluator) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            return stripe.entrySize(key, fileLengthEvaluator);
+        }
+    }
+
+    @Override
+    public void delete(long key) {
+        FilesystemEntryStore stripe = stripeOf(key);
+        synchronized (stripe) {
+            stripe.delete(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (FilesystemEntryStore stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Restores every stripe. Entries found in another stripe than their key hashes to, because the previous store
+     * had other directories, are moved to their stripe.
+     */
+    @Override
+    public void restore(LongConsumer restoredKeys) {
+        List<long[]> misplaced = new ArrayList<>();
+        for (int i = 0; i < stripes.size(); i++) {
+            int stripeIndex = i;
+            stripes.get(i).restore(key -> {
+                if (indexOf(key) == stripeIndex) {
+                    restoredKeys.accept(key);
+                } else {
+                    misplaced.add(new long[]{stripeIndex, key});
+                }
+            });
+        }
+        for (long[] entry : misplaced) {
+            FilesystemEntryStore source = stripes.get((int) entry[0]);
+            long key = entry[1];
+            FilesystemEntryStore target = stripeOf(key);
+            Object value = target.contains(key) ? null : source.readValue(key);
+            if (value != null) {
+                target.write(key, (Serializable) value);
+                target.writeWeight(key, source.readWeight(key));
+                target.writeDeadline(key, source.readDeadline(key));
+                restoredKeys.accept(key);
+            }
+            source.delete(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (FilesystemEntryStore stripe : stripes) {
+            stripe.close();
+        }
+    }
+
+    private FilesystemEntryStore stripeOf(long key) {
+        return stripes.get(indexOf(key));
+    }
+
+    private int indexOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) ((h ^ (h >>> 32)) & Integer.MAX_VALUE) % stripes.size();
+    }
+}
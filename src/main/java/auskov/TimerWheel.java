@@ -0,0 +1,158 @@
+package auskov;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Hierarchical timing wheel over table slots. A slot is bucketed by its deadline, so advancing the clock
+ * only visits the buckets whose time span has passed instead of every scheduled slot. Each level has 64 buckets;
+ * the tick of level 0 is 64 ms and every next level is 64 times coarser. Entries of a passed bucket
+ * either expire or cascade down to a finer level.
+ */
+final class TimerWheel {
+    private static final int NIL = -1;
+    private static final int[] SHIFTS = {6, 12, 18, 24, 30};
+    private static final int LEVELS = SHIFTS.length;
+    private static final int BUCKETS = 64;
+    private static final int BUCKET_MASK = BUCKETS - 1;
+    private static final int OVERDUE = LEVELS * BUCKETS;
+
+    private final int[] heads = new int[OVERDUE + 1];
+    private int[] next;
+    private int[] prev;
+    private int[] bucketOf;
+    private long[] deadlines;
+    private long time;
+
+    TimerWheel(long now) {
+        this(16, now);
+    }
+
+    TimerWheel(int slotCapacity, long now) {
+        next = new int[slotCapacity];
+        prev = new int[slotCapacity];
+        bucketOf = new int[slotCapacity];
+        deadlines = new long[slotCapacity];
+        Arrays.fill(bucketOf, NIL);
+        Arrays.fill(heads, NIL);
+        time = now;
+    }
+
+    void ensureCapacity(int slotCapacity) {
+        if (slotCapacity > next.length) {
+            int oldCapacity = next.length;
+            next = Arrays.copyOf(next, slotCapacity);
+            prev = Arrays.copyOf(prev, slotCapacity);
+            deadlines = Arrays.copyOf(deadlines, slotCapacity);
+            bucketOf = Arrays.copyOf(bucketOf, slotCapacity);
+            Arrays.fill(bucketOf, oldCapacity, slotCapacity, NIL);
+        }
+    }
+
+    void schedule(int slot, long deadline) {
+        cancel(slot);
+        if (deadline == Long.MAX_VALUE) {
+            return;
+        }
+        deadlines[slot] = deadline;
+        link(findBucket(deadline), slot);
+    }
+
+    void cancel(int slot) {
+        if (bucketOf[slot] != NIL) {
+            unlink(slot);
+        }
+    }
+
+    void advance(long now, IntConsumer expired) {
+        if (now < time) {
+            rewind(now);
+        }
+        long previous = time;
+        time = now;
+        processBucket(OVERDUE, expired);
+        for (int level = 0; level < LEVELS; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long currentTicks = now >>> SHIFTS[level];
+            if (level > 0 && currentTicks == previousTicks) {
+                break;
+            }
+            long ticks = Math.min(currentTicks - previousTicks, BUCKET_MASK);
+            for (long tick = currentTicks - ticks; tick <= currentTicks; tick++) {
+                processBucket(level * BUCKETS + (int) (tick & BUCKET_MASK), expired);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(heads, NIL);
+        Arrays.fill(bucketOf, NIL);
+    }
+
+    private void processBucket(int bucket, IntConsumer expired) {
+        int slot = heads[bucket];
+        heads[bucket] = NIL;
+        while (slot != NIL) {
+            int following = next[slot];
+            bucketOf[slot] = NIL;
+            if (deadlines[slot] <= time) {
+                expired.accept(slot);
+            } else {
+                link(findBucket(deadlines[slot]), slot);
+            }
+            slot = following;
+        }
+    }
+
+    private void rewind(long now) {
+        int[] scheduled = new int[next.length];
+        int count = 0;
+        for (int bucket = 0; bucket < heads.length; bucket++) {
+            for (int slot = heads[bucket]; slot != NIL; slot = next[slot]) {
+                scheduled[count++] = slot;
+            }
+        }
+        clear();
+        time = now;
+        for (int i = 0; i < count; i++) {
+            link(findBucket(deadlines[scheduled[i]]), scheduled[i]);
+        }
+    }
+
+    private int findBucket(long deadline) {
+        long delta = deadline - time;
+        if (delta < 0) {
+            return OVERDUE;
+        }
+        for (int level = 0; level < LEVELS - 1; level++) {
+            if (delta < (1L << SHIFTS[level + 1])) {
+                return level * BUCKETS + (int) ((deadline >>> SHIFTS[level]) & BUCKET_MASK);
+            }
+        }
+        return (LEVELS - 1) * BUCKETS + (int) ((deadline >>> SHIFTS[LEVELS - 1]) & BUCKET_MASK);
+    }
+
+    private void link(int bucket, int slot) {
+        int head = heads[bucket];
+        next[slot] = head;
+        prev[slot] = NIL;
+        if (head != NIL) {
+            prev[head] = slot;
+        }
+        heads[bucket] = slot;
+        bucketOf[slot] = bucket;
+    }
+
+    private void unlink(int slot) {
+        int bucket = bucketOf[slot];
+        if (prev[slot] == NIL) {
+            heads[bucket] = next[slot];
+        } else {
+            next[prev[slot]] = next[slot];
+        }
+        if (next[slot] != NIL) {
+            prev[next[slot]] = prev[slot];
+        }
+        bucketOf[slot] = NIL;
+    }
+}
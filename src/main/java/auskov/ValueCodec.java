@@ -0,0 +1,16 @@
+package auskov;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes and reads values of one class for CompactValueSerializer. A codec is registered per cache with
+ * cache.serializer.codec.&lt;value class name&gt;=&lt;codec class name&gt;, the codec needs a no-arg constructor.
+ */
+public interface ValueCodec<T> {
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,45 @@
+package auskov;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+
+/**
+ * Turns values into bytes and back for the tiers keeping values outside the heap: the off-heap and the filesystem
+ * tiers. The serializer is chosen with cache.serializer: java, compact, raw or a class name of an implementation
+ * with a no-arg constructor.
+ */
+public interface ValueSerializer {
+
+    static ValueSerializer create(Properties props) throws InvalidPropertiesFormatException {
+        String name = props.getProperty("cache.serializer", "java");
+        switch (name) {
+            case "java":
+                return new JavaValueSerializer();
+            case "compact":
+                return new CompactValueSerializer(props);
+            case "raw":
+                return new RawValueSerializer();
+            default:
+                try {
+                    return (ValueSerializer) Class.forName(name).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new InvalidPropertiesFormatException("Unknown serializer: " + name);
+                }
+        }
+    }
+
+    byte[] serialize(Serializable value) throws IOException;
+
+    Object deserialize(byte[] data) throws IOException, ClassNotFoundException;
+
+    /**
+     * Tells whether the other serializer reads the bytes written by this one, so the stored bytes may be handed
+     * to its user as they are. Only the same instance by default, a serializer without settings may accept
+     * any instance of its class.
+     */
+    default boolean hasSameFormat(ValueSerializer other) {
+        return other == this;
+    }
+}
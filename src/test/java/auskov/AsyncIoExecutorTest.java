@@ -0,0 +1,117 @@
+package auskov;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class AsyncIoExecutorTest {
+    private final AsyncIoExecutor executor = new AsyncIoExecutor(2, 2, false);
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        released.countDown();
+        executor.close();
+    }
+
+    @Test
+    public void operationsShouldRunOnTheIoThreads() throws Exception {
+        CompletableFuture<String> result = executor.submit(() -> Thread.currentThread().getName());
+        assertTrue(result.get(10, TimeUnit.SECONDS).startsWith("cache-async-io-"));
+    }
+
+    @Test
+    public void operationsAboveTheInFlightLimitShouldWaitForAPermit() throws Exception {
+        CompletableFuture<String> first = executor.submit(this::awaitRelease);
+        CompletableFuture<String> second = executor.submit(this::awaitRelease);
+        CompletableFuture<String> third = executor.submit(() -> Thread.currentThread().getName());
+
+        assertFalse(third.isDone());
+        assertFalse(first.isDone());
+        released.countDown();
+        assertEquals("released", first.get(10, TimeUnit.SECONDS));
+        assertEquals("released", second.get(10, TimeUnit.SECONDS));
+        assertTrue(third.get(10, TimeUnit.SECONDS).startsWith("cache-async-io-"));
+    }
+
+    @Test
+    public void operationsAboveTheInFlightLimitShouldFailWithTheFailRejection() throws Exception {
+        AsyncIoExecutor failing = new AsyncIoExecutor(1, 1, true);
+        try {
+            CompletableFuture<String> first = failing.submit(this::awaitRelease);
+            CompletableFuture<String> second = failing.submit(() -> "second");
+            try {
+                second.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            released.countDown();
+            assertEquals("released", first.get(10, TimeUnit.SECONDS));
+            assertEquals("third", failing.submit(() -> "third").get(10, TimeUnit.SECONDS));
+        } finally {
+            failing.close();
+        }
+    }
+
+    @Test
+    public void closeShouldRunTheWaitingOperations() throws Exception {
+        CompletableFuture<String> first = executor.submit(this::awaitRelease);
+        CompletableFuture<String> second = executor.submit(this::awaitRelease);
+        CompletableFuture<String> third = executor.submit(() -> "third");
+        released.countDown();
+        executor.close();
+
+        assertEquals("released", first.get());
+        assertEquals("released", second.get());
+        assertEquals("third", third.get());
+    }
+
+    @Test
+    public void creatingTheExecutorWithAnUnknownRejectionShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.async.rejection", "drop");
+        try {
+            AsyncIoExecutor.create(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown async rejection: drop", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void failuresShouldCompleteTheFutureExceptionally() throws InterruptedException {
+        CompletableFuture<Object> result = executor.submit(() -> {
+            throw new IllegalStateException("The cache is closed!");
+        });
+        try {
+            result.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            return;
+        } catch (TimeoutException e) {
+            fail();
+        }
+        fail();
+    }
+
+    private String awaitRelease() {
+        try {
+            released.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "released";
+    }
+}
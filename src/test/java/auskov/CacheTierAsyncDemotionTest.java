@@ -0,0 +1,203 @@
+package auskov;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CacheTierAsyncDemotionTest {
+    private CountDownLatch writesAllowed;
+    private AtomicInteger valueWrites;
+    private Map<Long, Long> writtenDeadlines;
+    private CacheTierMemory lowerTier;
+    private CacheTierAsyncDemotion cacheTier;
+
+    @Before
+    public void setUp() throws InvalidPropertiesFormatException {
+        writesAllowed = new CountDownLatch(1);
+        valueWrites = new AtomicInteger();
+        writtenDeadlines = new ConcurrentHashMap<>();
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "100");
+        lowerTier = new CacheTierMemory(props) {
+            @Override
+            public void put(long key, Serializable object, long deadline) {
+                try {
+                    writesAllowed.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                valueWrites.incrementAndGet();
+                writtenDeadlines.put(key, deadline);
+                super.put(key, object, deadline);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        writesAllowed.countDown();
+        if (cacheTier != null) {
+            cacheTier.close();
+        }
+    }
+
+    @Test
+    public void creatingTheTierWithUnknownQueuePolicyShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.demotion.queue.policy", "wait");
+        try {
+            new CacheTierAsyncDemotion(lowerTier, props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown demotion queue policy: wait", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void pendingEntriesShouldBeReadableBeforeTheyAreWritten() throws InvalidPropertiesFormatException {
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, new Properties());
+        cacheTier.put(1, "An object");
+        long deadline = System.currentTimeMillis() + 60000;
+        cacheTier.setDeadline(1, deadline);
+        cacheTier.setWeight(1, 7);
+
+        assertTrue(cacheTier.containsKey(1));
+        assertEquals("An object", cacheTier.get(1));
+        assertEquals(8, cacheTier.getWeight(1));
+        assertEquals(deadline, cacheTier.getDeadline(1));
+        assertFalse(lowerTier.containsKey(1));
+    }
+
+    @Test
+    public void pendingEntriesShouldReachTheWrappedTierWithTheirMetadata() throws Exception {
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, new Properties());
+        cacheTier.put(1, "An object");
+        cacheTier.setDeadline(1, Long.MAX_VALUE - 1);
+        cacheTier.setWeight(1, 7);
+        writesAllowed.countDown();
+        awaitEmptyQueue();
+
+        assertEquals("An object", lowerTier.get(1));
+        assertEquals(8, lowerTier.getWeight(1));
+        assertEquals(Long.MAX_VALUE - 1, lowerTier.getDeadline(1));
+    }
+
+    @Test
+    public void pendingEntriesShouldReachTheWrappedTierTogetherWithTheirDeadline() throws Exception {
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, new Properties());
+        cacheTier.put(1, "An object", Long.MAX_VALUE - 1);
+        writesAllowed.countDown();
+        awaitEmptyQueue();
+
+        assertEquals(Long.MAX_VALUE - 1, (long) writtenDeadlines.get(1L));
+    }
+
+    @Test
+    public void readsOfAPendingEntryShouldNotHoldBackTheQueue() throws Exception {
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, new Properties());
+        cacheTier.put(0, "A hot object");
+        cacheTier.put(1, "A cold object");
+        AtomicBoolean reading = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            while (reading.get()) {
+                cacheTier.get(0);
+                reads.incrementAndGet();
+            }
+        });
+        reader.start();
+        writesAllowed.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!lowerTier.containsKey(1) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        reading.set(false);
+        reader.join(10000);
+        awaitEmptyQueue();
+
+        assertTrue(lowerTier.containsKey(1));
+        assertEquals(2, valueWrites.get());
+        assertEquals(reads.get(), lowerTier.getWeight(0));
+    }
+
+    @Test
+    public void removedPendingEntriesShouldNotReachTheWrappedTier() throws Exception {
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, new Properties());
+        cacheTier.put(0, "An object");
+        cacheTier.put(1, "A removed object");
+        cacheTier.put(2, "An other removed object");
+        Thread remover = new Thread(() -> {
+            cacheTier.remove(1);
+            cacheTier.remove(2);
+        });
+        remover.start();
+        writesAllowed.countDown();
+        remover.join(10000);
+        awaitEmptyQueue();
+
+        assertTrue(lowerTier.containsKey(0));
+        assertFalse(lowerTier.containsKey(1));
+        assertFalse(lowerTier.containsKey(2));
+    }
+
+    @Test
+    public void dropPolicyShouldDiscardEntriesWhenTheQueueIsFull() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("cache.demotion.queue.size", "2");
+        props.setProperty("cache.demotion.queue.policy", "drop");
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, props);
+        for (long key = 0; key < 5; key++) {
+            cacheTier.put(key, "An object " + key);
+        }
+
+        assertEquals(2, cacheTier.pendingCount());
+        writesAllowed.countDown();
+        awaitEmptyQueue();
+
+        assertTrue(lowerTier.containsKey(0));
+        assertTrue(lowerTier.containsKey(1));
+        assertFalse(lowerTier.containsKey(4));
+    }
+
+    @Test
+    public void callerRunsPolicyShouldWriteOnTheCallersThreadWhenTheQueueIsFull() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("cache.demotion.queue.size", "1");
+        props.setProperty("cache.demotion.queue.policy", "caller-runs");
+        cacheTier = new CacheTierAsyncDemotion(lowerTier, props);
+        cacheTier.put(0, "A queued object");
+
+        Thread caller = new Thread(() -> cacheTier.put(1, "A direct object"));
+        caller.start();
+        while (caller.getState() != Thread.State.BLOCKED && caller.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        writesAllowed.countDown();
+        caller.join(10000);
+
+        assertFalse(caller.isAlive());
+        assertEquals("A direct object", lowerTier.get(1));
+    }
+
+    private void awaitEmptyQueue() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (cacheTier.pendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, cacheTier.pendingCount());
+    }
+}
@@ -0,0 +1,13 @@
+package auskov;
+
+import java.util.Properties;
+
+public class CacheTierFilesystemMappedTest extends CacheTierFilesystemSegmentsTest {
+
+    @Override
+    protected void configureEngine(Properties props) {
+        super.configureEngine(props);
+        props.setProperty("cache.filesystem.segment.bytes", "128");
+        props.setProperty("cache.filesystem.read.mode", "mmap");
+    }
+}
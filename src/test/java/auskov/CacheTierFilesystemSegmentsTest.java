@@ -0,0 +1,298 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class CacheTierFilesystemSegmentsTest extends CacheTierTest {
+    private static final Logger LOG = Logger.getLogger(CacheTierFilesystemSegmentsTest.class.getName());
+
+    @Test
+    public void creatingCacheTierFilesystemWithUnknownEngineShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "database");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown filesystem engine: database", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void getEntrySizeShouldReturnTheRecordLength() {
+        CacheTierFilesystem cacheTier = (CacheTierFilesystem) tierCache;
+        cacheTier.put(1, "An object");
+        assertEquals(SegmentEntryStore.HEADER_SIZE + new SerializedSizeEstimator().applyAsLong("An object"),
+                cacheTier.getEntrySize(1));
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithMmapReadModeAndFilesEngineShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "files");
+        props.setProperty("cache.filesystem.read.mode", "mmap");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("The mmap read mode needs the segments engine!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithMappedSegmentsLargerThanAnIntShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.read.mode", "mmap");
+        props.setProperty("cache.filesystem.segment.bytes", String.valueOf(Integer.MAX_VALUE + 1L));
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Size of a mapped segment can't exceed 2147483647 bytes!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithWriteBufferAndFilesEngineShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "files");
+        props.setProperty("cache.filesystem.write.buffer.bytes", "4096");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Write-behind needs the segments engine!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithUnknownDurabilityShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.durability", "always");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown durability: always", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithCompactionThresholdAbove100ShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.compaction.dead.percent", "101");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Compaction threshold must be between 0 and 100 percent!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void persistentTierShouldRestoreItsEntriesAfterARestart() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("persistent").toString());
+        props.setProperty("cache.filesystem.persistent", "enable");
+        configureEngine(props);
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        cacheTier.put(1, "An object");
+        cacheTier.setWeight(1, 7);
+        cacheTier.setDeadline(1, Long.MAX_VALUE - 1);
+        cacheTier.put(2, "An expired object");
+        cacheTier.setDeadline(2, System.currentTimeMillis() - 1);
+        cacheTier.setNextKey(10);
+        cacheTier.close();
+
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        try {
+            assertEquals("An object", restoredTier.get(1));
+            assertEquals(8, restoredTier.getWeight(1));
+            assertEquals(Long.MAX_VALUE - 1, restoredTier.getDeadline(1));
+            assertFalse(restoredTier.containsKey(2));
+            assertEquals(10, restoredTier.getNextKey());
+        } finally {
+            restoredTier.clear();
+            restoredTier.close();
+        }
+    }
+
+    @Test
+    public void transferValueShouldWriteTheStoredBytesAsTheyAre() throws IOException {
+        for (String compression : new String[]{"none", "deflate"}) {
+            Properties props = new Properties();
+            props.setProperty("cache.size.filesystem.bytes", "100000");
+            props.setProperty("cache.filesystem.storage.path", ".");
+            configureEngine(props);
+            props.setProperty("cache.serializer", "raw");
+            props.setProperty("cache.filesystem.compression", compression);
+            props.setProperty("cache.filesystem.compression.threshold.bytes", "0");
+            try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+                byte[] payload = new byte[1000];
+                Arrays.fill(payload, (byte) 7);
+                cacheTier.put(1, payload);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+                assertEquals(1000, cacheTier.transferValue(1, Channels.newChannel(bytes), new RawValueSerializer()));
+                assertArrayEquals(payload, bytes.toByteArray());
+                assertEquals(1, cacheTier.getWeight(1));
+                cacheTier.clear();
+            }
+        }
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithChunkSizeZeroShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.chunk.bytes", "0");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Size of a chunk must be greater than 0!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void putStreamShouldStoreTheValueInChunksAndGetStreamShouldReadItBack() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.segment.bytes", "4096");
+        props.setProperty("cache.filesystem.chunk.bytes", "1000");
+        configureEngine(props);
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            byte[] payload = new byte[10000];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) i;
+            }
+            cacheTier.putStream(1, new ByteArrayInputStream(payload), payload.length);
+
+            assertArrayEquals(payload, readAll(cacheTier.getStream(1)));
+            assertArrayEquals(payload, (byte[]) cacheTier.get(1));
+            assertTrue(cacheTier.getEntrySize(1) > payload.length);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            assertEquals(payload.length, cacheTier.transferValue(1, Channels.newChannel(bytes),
+                    new RawValueSerializer()));
+            assertArrayEquals(payload, bytes.toByteArray());
+            cacheTier.clear();
+        }
+    }
+
+    @Test
+    public void putStreamShouldSkipAValueLargerThanTheTierWithoutReadingIt() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "1000");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        configureEngine(props);
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            ByteArrayInputStream stream = new ByteArrayInputStream(new byte[2000]);
+            cacheTier.putStream(1, stream, 2000);
+
+            assertEquals(2000, stream.available());
+            assertFalse(cacheTier.containsKey(1));
+        }
+    }
+
+    @Test
+    public void putStreamShouldKeepTheExistingValueIfTheStreamIsShorterThanTheLength() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        configureEngine(props);
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            try {
+                cacheTier.putStream(1, new ByteArrayInputStream(new byte[10]), 20);
+                fail();
+            } catch (IOException e) {
+                assertFalse(cacheTier.containsKey(1));
+            }
+        }
+    }
+
+    static byte[] readAll(InputStream stream) throws IOException {
+        try (InputStream input = stream) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    protected void configureEngine(Properties props) {
+        props.setProperty("cache.filesystem.engine", "segments");
+    }
+
+    @Override
+    protected CacheTier createCacheTier(Properties props) {
+        configureEngine(props);
+        try {
+            CacheTier cacheTier = new CacheTierFilesystem(props);
+            resourceRegistry.add(cacheTier);
+            return cacheTier;
+        } catch (InvalidPropertiesFormatException e) {
+            LOG.log(Level.WARNING, "Attempt to create a second cache tier with invalid properties.", e);
+            fail("Attempt to create a second cache tier with invalid properties.");
+        }
+        return null;
+    }
+
+    @Override
+    protected CacheTier createCacheTierWithThreeObjectsCapacityAndCurrentTime100() {
+        try {
+            Properties props = new Properties();
+            props.setProperty("cache.size.filesystem.bytes", "170");
+            props.setProperty("cache.filesystem.storage.path", ".");
+            configureEngine(props);
+            CacheTier cacheTier = new CacheTierFilesystem(props);
+            cacheTier.setCurrentTimeSupplier(() -> 100L);
+            resourceRegistry.add(cacheTier);
+            return cacheTier;
+        } catch (InvalidPropertiesFormatException e) {
+            LOG.log(Level.WARNING, "Attempt to create a second cache tier with invalid properties.", e);
+            fail("Attempt to create a second cache tier with invalid properties.");
+        }
+        return null;
+    }
+}
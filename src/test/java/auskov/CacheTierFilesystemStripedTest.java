@@ -0,0 +1,176 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CacheTierFilesystemStripedTest extends CacheTierFilesystemSegmentsTest {
+
+    @Override
+    protected void configureEngine(Properties props) {
+        super.configureEngine(props);
+        try {
+            props.setProperty("cache.filesystem.storage.path", props.getProperty("cache.filesystem.storage.path")
+                    + "," + Files.createTempDirectory("stripe"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithTheSameStoragePathTwiceShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ". , .");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Cache storage paths must be different!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void entriesShouldBeSpreadOverAllStoragePaths() throws IOException {
+        File first = Files.createTempDirectory("stripe").toFile();
+        File second = Files.createTempDirectory("stripe").toFile();
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.storage.path", first + "," + second);
+        props.setProperty("cache.filesystem.engine", "files");
+        props.setProperty("cache.filesystem.persistent", "enable");
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            for (long key = 0; key < 100; key++) {
+                cacheTier.put(key, "An object " + key);
+            }
+            int firstCount = new File(first, "second_tier_cache/persistent").list().length;
+            int secondCount = new File(second, "second_tier_cache/persistent").list().length;
+            assertEquals(300, firstCount + secondCount);
+            assertTrue(firstCount > 60 && secondCount > 60);
+            for (long key = 0; key < 100; key++) {
+                assertEquals("An object " + key, cacheTier.get(key));
+            }
+            cacheTier.clear();
+        }
+    }
+
+    @Test
+    public void restoreShouldMoveTheEntriesToTheStripesOfAnAddedStoragePath() throws IOException {
+        File first = Files.createTempDirectory("stripe").toFile();
+        File second = Files.createTempDirectory("stripe").toFile();
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.storage.path", first.toString());
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.persistent", "enable");
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        for (long key = 0; key < 20; key++) {
+            cacheTier.put(key, "An object " + key);
+        }
+        cacheTier.setWeight(3, 7);
+        cacheTier.close();
+
+        props.setProperty("cache.filesystem.storage.path", first + "," + second);
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        try {
+            assertTrue(new File(second, "second_tier_cache/persistent").list().length > 0);
+            for (long key = 0; key < 20; key++) {
+                assertEquals("An object " + key, restoredTier.get(key));
+            }
+            assertEquals(8, restoredTier.getWeight(3));
+        } finally {
+            restoredTier.clear();
+            restoredTier.close();
+        }
+    }
+
+    @Test
+    public void getsOfDifferentStripesShouldRunInParallelBehindTheDemotionQueue() throws Exception {
+        File first = Files.createTempDirectory("stripe").toFile();
+        File second = Files.createTempDirectory("stripe").toFile();
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.storage.path", first + "," + second);
+        props.setProperty("cache.filesystem.engine", "files");
+        props.setProperty("cache.filesystem.persistent", "enable");
+        props.setProperty("cache.serializer", GateSerializer.class.getName());
+        CacheTierFilesystem filesystemTier = new CacheTierFilesystem(props);
+        File firstEntries = new File(first, "second_tier_cache/persistent");
+        long slowKey = -1;
+        long fastKey = -1;
+        for (long key = 0; slowKey < 0 || fastKey < 0; key++) {
+            filesystemTier.put(key, "An object " + key);
+            if (new File(firstEntries, key + ".value").exists()) {
+                slowKey = slowKey < 0 ? key : slowKey;
+            } else {
+                fastKey = fastKey < 0 ? key : fastKey;
+            }
+        }
+        filesystemTier.put(slowKey, GateSerializer.SLOW_VALUE);
+        CacheTierAsyncDemotion cacheTier = new CacheTierAsyncDemotion(filesystemTier, props);
+        GateSerializer.entered = new CountDownLatch(1);
+        GateSerializer.released = new CountDownLatch(1);
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try {
+            long slow = slowKey;
+            long fast = fastKey;
+            Future<Object> slowGet = readers.submit(() -> cacheTier.get(slow));
+            assertTrue(GateSerializer.entered.await(10, TimeUnit.SECONDS));
+            Future<Object> fastGet = readers.submit(() -> cacheTier.get(fast));
+
+            assertEquals("An object " + fastKey, fastGet.get(10, TimeUnit.SECONDS));
+            assertFalse(slowGet.isDone());
+            GateSerializer.released.countDown();
+            assertEquals(GateSerializer.SLOW_VALUE, slowGet.get(10, TimeUnit.SECONDS));
+        } finally {
+            GateSerializer.released.countDown();
+            readers.shutdown();
+            cacheTier.clear();
+            cacheTier.close();
+        }
+    }
+
+    /**
+     * Holds the read of the slow value until the test releases it, the stripe of the value stays locked meanwhile.
+     */
+    public static final class GateSerializer implements ValueSerializer {
+        static final String SLOW_VALUE = "A slow object";
+        static volatile CountDownLatch entered = new CountDownLatch(0);
+        static volatile CountDownLatch released = new CountDownLatch(0);
+
+        private final JavaValueSerializer delegate = new JavaValueSerializer();
+
+        @Override
+        public byte[] serialize(Serializable value) throws IOException {
+            return delegate.serialize(value);
+        }
+
+        @Override
+        public Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+            Object value = delegate.deserialize(data);
+            if (SLOW_VALUE.equals(value)) {
+                entered.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return value;
+        }
+    }
+}
@@ -2,9 +2,19 @@ package auskov;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,6 +73,78 @@ public class CacheTierFilesystemTest extends CacheTierTest {
         assertEquals(321L, cacheTierFilesystem.getEntrySize(key));
     }
 
+    @Test
+    public void getEntrySizeShouldNotMeasureTheFilesAgain() {
+        long key = 23;
+        AtomicInteger measurements = new AtomicInteger();
+        cacheTierFilesystem = (CacheTierFilesystem) tierCache;
+        cacheTierFilesystem.setFileLenghtEvaluator(file -> {
+            measurements.incrementAndGet();
+            return 10L;
+        });
+        cacheTierFilesystem.put(key, "An object");
+        int measurementsAfterPut = measurements.get();
+        cacheTierFilesystem.setWeight(key, 3);
+        cacheTierFilesystem.get(key);
+
+        assertEquals(30L, cacheTierFilesystem.getEntrySize(key));
+        assertEquals(4, cacheTierFilesystem.getWeight(key));
+        assertEquals(0L, cacheTierFilesystem.getEntrySize(key + 1));
+        assertEquals(measurementsAfterPut, measurements.get());
+    }
+
+    @Test
+    public void readersShouldNotWaitForTheStoreIoOfAPut() throws InterruptedException {
+        cacheTierFilesystem = (CacheTierFilesystem) tierCache;
+        cacheTierFilesystem.put(0, "A stored object");
+        CountDownLatch measuring = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        cacheTierFilesystem.setFileLenghtEvaluator(file -> {
+            if (file.getName().startsWith("1.")) {
+                measuring.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return file.length();
+        });
+        Thread writer = new Thread(() -> cacheTierFilesystem.put(1, "A new object"));
+        writer.start();
+        try {
+            assertTrue(measuring.await(10, TimeUnit.SECONDS));
+            AtomicReference<Long> weight = new AtomicReference<>();
+            Thread reader = new Thread(() -> {
+                if (cacheTierFilesystem.containsKey(0)) {
+                    cacheTierFilesystem.incrementWeight(0);
+                    weight.set(cacheTierFilesystem.getWeight(0));
+                }
+            });
+            reader.start();
+            reader.join(5000);
+
+            assertFalse(reader.isAlive());
+            assertEquals(Long.valueOf(1), weight.get());
+        } finally {
+            released.countDown();
+            writer.join(10000);
+        }
+        assertEquals("A stored object", cacheTierFilesystem.get(0));
+        assertEquals("A new object", cacheTierFilesystem.get(1));
+    }
+
+    @Test
+    public void asyncOperationsShouldRunOnTheIoThreadsOfTheTier() throws Exception {
+        cacheTierFilesystem = (CacheTierFilesystem) tierCache;
+        cacheTierFilesystem.putAsync(0, "An async object").get(10, TimeUnit.SECONDS);
+
+        assertEquals("An async object", cacheTierFilesystem.getAsync(0).get(10, TimeUnit.SECONDS));
+        cacheTierFilesystem.removeAsync(0).get(10, TimeUnit.SECONDS);
+        assertFalse(cacheTierFilesystem.containsKey(0));
+        assertNull(cacheTierFilesystem.getAsync(0).get(10, TimeUnit.SECONDS));
+    }
+
     @Test
     public void creatingCacheTierFilesystemWithNullStoragePathShouldThrowAnException() {
         Properties props = new Properties();
@@ -118,6 +200,187 @@ public class CacheTierFilesystemTest extends CacheTierTest {
         fail();
     }
 
+    @Test
+    public void putShouldEvictTheLeastRecentlyUsedEntryWithLruPolicy() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "45");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.eviction.policy.filesystem", "lru");
+        cacheTierFilesystem = new CacheTierFilesystem(props);
+        resourceRegistry.add(cacheTierFilesystem);
+        cacheTierFilesystem.setFileLenghtEvaluator(file -> 5L);
+
+        cacheTierFilesystem.put(1, "An object");
+        cacheTierFilesystem.put(2, "An object");
+        cacheTierFilesystem.put(3, "An object");
+        cacheTierFilesystem.get(1);
+        cacheTierFilesystem.put(4, "An object");
+
+        assertTrue(cacheTierFilesystem.containsKey(1));
+        assertFalse(cacheTierFilesystem.containsKey(2));
+        assertTrue(cacheTierFilesystem.containsKey(3));
+        assertTrue(cacheTierFilesystem.containsKey(4));
+    }
+
+    @Test
+    public void weightAgingShouldHalveTheStoredWeights() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.weight.aging.filesystem", "2");
+        cacheTierFilesystem = new CacheTierFilesystem(props);
+        resourceRegistry.add(cacheTierFilesystem);
+
+        cacheTierFilesystem.put(1, "An object");
+        cacheTierFilesystem.put(2, "An other object");
+        cacheTierFilesystem.setWeight(2, 9);
+        cacheTierFilesystem.get(1);
+        cacheTierFilesystem.get(1);
+
+        assertEquals(1, cacheTierFilesystem.getWeight(1));
+        assertEquals(4, cacheTierFilesystem.getWeight(2));
+    }
+
+    @Test
+    public void putShouldEvictDownToTheLowWatermark() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "150");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.watermark.low.percent", "50");
+        cacheTierFilesystem = new CacheTierFilesystem(props);
+        resourceRegistry.add(cacheTierFilesystem);
+        cacheTierFilesystem.setFileLenghtEvaluator(file -> 5L);
+
+        for (long key = 0; key < 11; key++) {
+            cacheTierFilesystem.put(key, "An object");
+        }
+
+        for (long key = 0; key < 6; key++) {
+            assertFalse(cacheTierFilesystem.containsKey(key));
+        }
+        for (long key = 6; key < 11; key++) {
+            assertTrue(cacheTierFilesystem.containsKey(key));
+        }
+    }
+
+    @Test
+    public void persistentTierShouldRestoreItsEntriesAfterARestart() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("persistent").toString());
+        props.setProperty("cache.filesystem.persistent", "enable");
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        cacheTier.put(1, "An object");
+        cacheTier.setWeight(1, 7);
+        cacheTier.setDeadline(1, Long.MAX_VALUE - 1);
+        cacheTier.put(2, "An expired object");
+        cacheTier.setDeadline(2, System.currentTimeMillis() - 1);
+        cacheTier.setNextKey(10);
+        cacheTier.close();
+
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        try {
+            assertEquals("An object", restoredTier.get(1));
+            assertEquals(8, restoredTier.getWeight(1));
+            assertEquals(Long.MAX_VALUE - 1, restoredTier.getDeadline(1));
+            assertFalse(restoredTier.containsKey(2));
+            assertEquals(10, restoredTier.getNextKey());
+        } finally {
+            restoredTier.clear();
+            restoredTier.close();
+        }
+    }
+
+    @Test
+    public void getShouldNotWriteTheWeightUntilTheTierIsClosed() throws IOException {
+        File storagePath = Files.createTempDirectory("persistent").toFile();
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", storagePath.toString());
+        props.setProperty("cache.filesystem.persistent", "enable");
+        File weightFile = new File(storagePath, "second_tier_cache/persistent/1.weight");
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        cacheTier.put(1, "An object");
+        for (int i = 0; i < 3; i++) {
+            cacheTier.get(1);
+        }
+        assertEquals(3, cacheTier.getWeight(1));
+        assertEquals(0, readLong(weightFile));
+        cacheTier.close();
+
+        assertEquals(3, readLong(weightFile));
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        try {
+            assertEquals(3, restoredTier.getWeight(1));
+        } finally {
+            restoredTier.clear();
+            restoredTier.close();
+        }
+    }
+
+    @Test
+    public void weightAgingShouldNotRewriteTheStoredWeightsUntilTheTierIsClosed() throws IOException {
+        File storagePath = Files.createTempDirectory("persistent").toFile();
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", storagePath.toString());
+        props.setProperty("cache.filesystem.persistent", "enable");
+        props.setProperty("cache.weight.aging.filesystem", "2");
+        File entries = new File(storagePath, "second_tier_cache/persistent");
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        cacheTier.put(1, "An object");
+        cacheTier.put(2, "An other object");
+        cacheTier.put(3, "A removed object");
+        cacheTier.setWeight(2, 9);
+        cacheTier.remove(3);
+        cacheTier.get(1);
+        cacheTier.get(1);
+
+        assertEquals(4, cacheTier.getWeight(2));
+        assertEquals(0, readLong(new File(entries, "2.weight")));
+        cacheTier.close();
+
+        assertEquals(1, readLong(new File(entries, "1.weight")));
+        assertEquals(4, readLong(new File(entries, "2.weight")));
+        assertFalse(new File(entries, "3.weight").exists());
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        restoredTier.clear();
+        restoredTier.close();
+    }
+
+    private static long readLong(File file) throws IOException {
+        try (DataInputStream stream = new DataInputStream(new FileInputStream(file))) {
+            return stream.readLong();
+        }
+    }
+
+    @Test
+    public void streamedValueShouldBeStoredInOneFileAndRestoredAfterARestart() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100000");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("persistent").toString());
+        props.setProperty("cache.filesystem.persistent", "enable");
+        byte[] payload = new byte[10000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        CacheTierFilesystem cacheTier = new CacheTierFilesystem(props);
+        cacheTier.putStream(1, new ByteArrayInputStream(payload), payload.length);
+        cacheTier.setWeight(1, 7);
+        assertArrayEquals(payload, CacheTierFilesystemSegmentsTest.readAll(cacheTier.getStream(1)));
+        cacheTier.close();
+
+        CacheTierFilesystem restoredTier = new CacheTierFilesystem(props);
+        try {
+            assertArrayEquals(payload, CacheTierFilesystemSegmentsTest.readAll(restoredTier.getStream(1)));
+            assertArrayEquals(payload, (byte[]) restoredTier.get(1));
+            assertEquals(10, restoredTier.getWeight(1));
+        } finally {
+            restoredTier.clear();
+            restoredTier.close();
+        }
+    }
+
     @Override
     protected CacheTier createCacheTier(Properties props) {
         try {
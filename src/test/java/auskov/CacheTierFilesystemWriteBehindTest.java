@@ -0,0 +1,13 @@
+package auskov;
+
+import java.util.Properties;
+
+public class CacheTierFilesystemWriteBehindTest extends CacheTierFilesystemSegmentsTest {
+
+    @Override
+    protected void configureEngine(Properties props) {
+        super.configureEngine(props);
+        props.setProperty("cache.filesystem.write.buffer.bytes", "4096");
+        props.setProperty("cache.filesystem.durability", "batch");
+    }
+}
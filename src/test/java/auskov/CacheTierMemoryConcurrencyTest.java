@@ -0,0 +1,266 @@
+package auskov;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.InvalidPropertiesFormatException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class CacheTierMemoryConcurrencyTest {
+    private static final int THREADS = 64;
+
+    private CacheTierMemory cacheTier;
+
+    @After
+    public void tearDown() {
+        if (cacheTier != null) {
+            cacheTier.close();
+        }
+    }
+
+    @Test
+    public void concurrentGetsShouldNotLoseWeightIncrements() throws Exception {
+        cacheTier = createCacheTier(100, 16);
+        long key = 7;
+        cacheTier.put(key, "A hot object");
+        int getsPerThread = 1000;
+        runConcurrently(THREADS, threadIndex -> {
+            for (int i = 0; i < getsPerThread; i++) {
+                cacheTier.get(key);
+            }
+        });
+        assertEquals(THREADS * getsPerThread, cacheTier.getWeight(key));
+    }
+
+    @Test
+    public void concurrentPutsShouldNotOvershootTheCapacity() throws Exception {
+        int capacity = 100;
+        cacheTier = createCacheTier(capacity, 16);
+        int putsPerThread = 500;
+        AtomicReference<Long> maxObservedSize = new AtomicReference<>(0L);
+        runConcurrently(THREADS, threadIndex -> {
+            for (int i = 0; i < putsPerThread; i++) {
+                long key = (long) threadIndex * putsPerThread + i;
+                cacheTier.put(key, "Object " + key);
+                cacheTier.get(key);
+                long size = cacheTier.size();
+                maxObservedSize.accumulateAndGet(size, Math::max);
+            }
+        });
+        assertTrue(maxObservedSize.get() <= capacity);
+        int contained = 0;
+        for (long key = 0; key < (long) THREADS * putsPerThread; key++) {
+            if (cacheTier.containsKey(key)) {
+                contained++;
+            }
+        }
+        assertEquals(capacity, contained);
+        assertEquals(capacity, cacheTier.size());
+    }
+
+    @Test
+    public void readersShouldNotWaitForAWriterEvictingInAnotherSegment() throws Exception {
+        int capacity = 64;
+        cacheTier = createCacheTier(capacity, 16);
+        CountDownLatch demoting = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CacheTierMemory lowerTier = createBlockingLowerTier(capacity, demoting, released);
+        cacheTier.setLowerLevelCache(lowerTier);
+        for (long key = 0; key < capacity; key++) {
+            cacheTier.put(key, "Object " + key);
+        }
+        long newKey = capacity;
+        while (cacheTier.segmentIndex(newKey) != cacheTier.segmentIndex(0)) {
+            newKey++;
+        }
+        long writerKey = newKey;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(() -> cacheTier.put(writerKey, "A new object"));
+            assertTrue(demoting.await(10, TimeUnit.SECONDS));
+            Future<Integer> reader = executor.submit(() -> {
+                int hits = 0;
+                for (long key = 0; key < capacity; key++) {
+                    if (cacheTier.segmentIndex(key) != cacheTier.segmentIndex(writerKey)
+                            && cacheTier.get(key) != null) {
+                        hits++;
+                    }
+                }
+                return hits;
+            });
+            int otherSegmentsKeys = 0;
+            for (long key = 0; key < capacity; key++) {
+                if (cacheTier.segmentIndex(key) != cacheTier.segmentIndex(writerKey)) {
+                    otherSegmentsKeys++;
+                }
+            }
+
+            assertTrue(otherSegmentsKeys > 0);
+            assertEquals(otherSegmentsKeys, (int) reader.get(10, TimeUnit.SECONDS));
+            assertFalse(writer.isDone());
+            released.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+            assertEquals("A new object", cacheTier.get(writerKey));
+            assertEquals(capacity, cacheTier.size());
+        } finally {
+            released.countDown();
+            executor.shutdown();
+            lowerTier.close();
+        }
+    }
+
+    @Test
+    public void readersShouldNotWaitForADemotionFromTheirSegment() throws Exception {
+        int capacity = 16;
+        cacheTier = createCacheTier(capacity, 1);
+        CountDownLatch demoting = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CacheTierMemory lowerTier = createBlockingLowerTier(capacity, demoting, released);
+        cacheTier.setLowerLevelCache(lowerTier);
+        for (long key = 0; key < capacity; key++) {
+            cacheTier.put(key, "Object " + key);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> writer = executor.submit(() -> cacheTier.put(capacity, "A new object"));
+            assertTrue(demoting.await(10, TimeUnit.SECONDS));
+            Future<Integer> reader = executor.submit(() -> {
+                int hits = 0;
+                for (long key = 0; key < capacity; key++) {
+                    if (cacheTier.containsKey(key) && ("Object " + key).equals(cacheTier.get(key))) {
+                        hits++;
+                    }
+                }
+                return hits;
+            });
+
+            assertEquals(capacity, (int) reader.get(10, TimeUnit.SECONDS));
+            assertFalse(writer.isDone());
+            released.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+            assertEquals(capacity, cacheTier.size());
+            assertEquals(1, lowerTier.size());
+        } finally {
+            released.countDown();
+            executor.shutdown();
+            lowerTier.close();
+        }
+    }
+
+    @Test
+    public void entryRemovedBeforeItsDemotionShouldNotReachTheLowerTier() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "4");
+        props.setProperty("cache.memory.concurrency.level", "1");
+        props.setProperty("cache.memory.watermark.low.percent", "50");
+        cacheTier = new CacheTierMemory(props);
+        CountDownLatch demoting = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        CacheTierMemory lowerTier = createBlockingLowerTier(4, demoting, released);
+        cacheTier.setLowerLevelCache(lowerTier);
+        for (long key = 0; key < 4; key++) {
+            cacheTier.put(key, "Object " + key);
+            for (int i = 0; i < key; i++) {
+                cacheTier.get(key);
+            }
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> cacheTier.put(4, "A new object"));
+            assertTrue(demoting.await(10, TimeUnit.SECONDS));
+            cacheTier.remove(1);
+            released.countDown();
+            writer.get(10, TimeUnit.SECONDS);
+
+            assertNull(cacheTier.get(1));
+            assertTrue(lowerTier.containsKey(0));
+            assertFalse(lowerTier.containsKey(1));
+            assertTrue(lowerTier.containsKey(2));
+        } finally {
+            released.countDown();
+            executor.shutdown();
+            lowerTier.close();
+        }
+    }
+
+    @Test
+    public void concurrencyLevelShouldDefaultToTheNumberOfProcessorsRoundedToAPowerOfTwo()
+            throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "100");
+        cacheTier = new CacheTierMemory(props);
+        int processors = Runtime.getRuntime().availableProcessors();
+        int segments = cacheTier.segmentCount();
+        assertEquals(0, segments & (segments - 1));
+        assertTrue(segments >= processors && segments < 2 * processors);
+    }
+
+    private CacheTierMemory createCacheTier(long capacity, int concurrencyLevel) throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", String.valueOf(capacity));
+        props.setProperty("cache.memory.concurrency.level", String.valueOf(concurrencyLevel));
+        return new CacheTierMemory(props);
+    }
+
+    /**
+     * Creates a tier whose put signals the demoting latch and waits for the released latch.
+     */
+    private CacheTierMemory createBlockingLowerTier(long capacity, CountDownLatch demoting, CountDownLatch released)
+            throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", String.valueOf(capacity));
+        return new CacheTierMemory(props) {
+            @Override
+            public void put(long key, Serializable object, long deadline) {
+                demoting.countDown();
+                try {
+                    released.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.put(key, object, deadline);
+            }
+        };
+    }
+
+    private void runConcurrently(int threadsCount, ThreadBody body) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            final int threadIndex = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run(threadIndex);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadBody {
+        void run(int threadIndex) throws Exception;
+    }
+}
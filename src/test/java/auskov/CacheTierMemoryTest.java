@@ -38,6 +38,268 @@ public class CacheTierMemoryTest extends CacheTierTest {
         fail();
     }
 
+    @Test
+    public void creatingCacheTierMemoryWithConcurrencyLevelZeroShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.memory.concurrency.level", "0");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Concurrency level must be greater than 0!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithByteSizeZeroShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.bytes", "0");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Size of the cache tier must be greater than 0!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithUnknownSizeEstimatorShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.bytes", "1000");
+        props.setProperty("cache.memory.size.estimator", "no.such.Estimator");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown size estimator: no.such.Estimator", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithUnknownAdmissionPolicyShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.memory.admission", "lru");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown admission policy: lru", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void tinyLfuAdmissionShouldKeepHotEntriesDuringAScan() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.memory.concurrency.level", "1");
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.memory.admission", "tinylfu");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        for (long key = 0; key < 10; key++) {
+            cacheTier.put(key, "An object " + key);
+        }
+        for (int i = 0; i < 3; i++) {
+            for (long key = 0; key < 5; key++) {
+                cacheTier.get(key);
+            }
+        }
+        for (long key = 100; key < 1100; key++) {
+            cacheTier.put(key, "A scanned object " + key);
+        }
+
+        for (long key = 0; key < 5; key++) {
+            assertTrue(cacheTier.containsKey(key));
+        }
+        assertEquals(10, cacheTier.size());
+        assertTrue(cacheTier.containsKey(1099));
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithUnknownEvictionPolicyShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.eviction.policy.memory", "random");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown eviction policy: random", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void putShouldEvictTheOldestEntryWithFifoPolicy() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "2");
+        props.setProperty("cache.eviction.policy.memory", "fifo");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        cacheTier.put(0, "An object");
+        cacheTier.put(1, "An other object");
+        cacheTier.get(0);
+        cacheTier.get(0);
+        cacheTier.put(2, "A new object");
+
+        assertFalse(cacheTier.containsKey(0));
+        assertTrue(cacheTier.containsKey(1));
+        assertTrue(cacheTier.containsKey(2));
+    }
+
+    @Test
+    public void weightAgingShouldHalveTheWeightsAfterTheConfiguredNumberOfAccesses()
+            throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.memory.concurrency.level", "1");
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.weight.aging.memory", "3");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        cacheTier.put(0, "An object");
+        cacheTier.setWeight(0, 10);
+        cacheTier.get(0);
+        cacheTier.get(0);
+        assertEquals(12, cacheTier.getWeight(0));
+        cacheTier.get(0);
+        assertEquals(6, cacheTier.getWeight(0));
+    }
+
+    @Test
+    public void weightAgingShouldLetAStaleHotEntryBeEvicted() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "2");
+        props.setProperty("cache.weight.aging.memory", "4");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        long staleKey = 0;
+        long hotKey = 1;
+        cacheTier.put(staleKey, "A stale object");
+        cacheTier.setWeight(staleKey, 16);
+        cacheTier.put(hotKey, "A hot object");
+        for (int i = 0; i < 12; i++) {
+            cacheTier.get(hotKey);
+        }
+        cacheTier.put(2, "A new object");
+
+        assertFalse(cacheTier.containsKey(staleKey));
+        assertTrue(cacheTier.containsKey(hotKey));
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithNegativeAgingPeriodShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.weight.aging.memory", "-1");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Weight aging period can't be negative!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void putShouldEvictABatchDownToTheLowWatermark() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.memory.concurrency.level", "1");
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.memory.watermark.high.percent", "80");
+        props.setProperty("cache.memory.watermark.low.percent", "50");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        for (long key = 0; key < 8; key++) {
+            cacheTier.put(key, "An object " + key);
+        }
+        assertEquals(8, cacheTier.size());
+        cacheTier.put(8, "An object 8");
+        assertEquals(5, cacheTier.size());
+        assertFalse(cacheTier.containsKey(3));
+        assertTrue(cacheTier.containsKey(4));
+        assertTrue(cacheTier.containsKey(8));
+    }
+
+    @Test
+    public void creatingCacheTierMemoryWithLowWatermarkAboveHighShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.memory.watermark.high.percent", "50");
+        props.setProperty("cache.memory.watermark.low.percent", "80");
+        try {
+            new CacheTierMemory(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Eviction watermarks must satisfy 0 < low <= high <= 100!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void putShouldEvictByBytesIfTheTierIsBoundedByBytes() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.memory.concurrency.level", "1");
+        props.setProperty("cache.size.in.memory.bytes", "100");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+        cacheTier.setSizeEstimator(object -> ((String) object).length());
+
+        long hotKey = 0;
+        long coldKey = 1;
+        long newKey = 2;
+        cacheTier.put(hotKey, new String(new char[40]));
+        cacheTier.get(hotKey);
+        cacheTier.put(coldKey, new String(new char[50]));
+        assertEquals(90, cacheTier.sizeInBytes());
+        cacheTier.put(newKey, new String(new char[30]));
+
+        assertTrue(cacheTier.containsKey(hotKey));
+        assertFalse(cacheTier.containsKey(coldKey));
+        assertTrue(cacheTier.containsKey(newKey));
+        assertEquals(70, cacheTier.sizeInBytes());
+    }
+
+    @Test
+    public void putShouldNotKeepAnObjectLargerThanTheTier() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.bytes", "100");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        long key = 0;
+        cacheTier.put(key, new byte[1000]);
+        assertFalse(cacheTier.containsKey(key));
+        assertEquals(0, cacheTier.sizeInBytes());
+    }
+
+    @Test
+    public void removeAndClearShouldReleaseTheBytes() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        props.setProperty("cache.size.in.memory.bytes", "100000");
+        CacheTierMemory cacheTier = new CacheTierMemory(props);
+        resourceRegistry.add(cacheTier);
+
+        cacheTier.put(0, "An object");
+        cacheTier.put(1, "An other object");
+        assertTrue(cacheTier.sizeInBytes() > 0);
+        cacheTier.remove(0);
+        cacheTier.put(1, "Replaced");
+        assertEquals(new SerializedSizeEstimator().applyAsLong("Replaced"), cacheTier.sizeInBytes());
+        cacheTier.clear();
+        assertEquals(0, cacheTier.sizeInBytes());
+    }
+
     @Override
     protected CacheTier createCacheTier(Properties props) {
         CacheTier cacheTier = null;
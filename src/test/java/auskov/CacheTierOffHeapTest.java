@@ -0,0 +1,189 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+public class CacheTierOffHeapTest extends CacheTierTest {
+    private static final Logger LOG = Logger.getLogger(CacheTierOffHeapTest.class.getName());
+
+    @Test
+    public void creatingCacheTierOffHeapWithSizeZeroShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.offheap.bytes", "0");
+        try {
+            new CacheTierOffHeap(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Size of the cache tier must be greater than 0!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void creatingCacheTierOffHeapWithTooSmallPagesShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.offheap.bytes", "1024");
+        props.setProperty("cache.offheap.page.bytes", "16");
+        try {
+            new CacheTierOffHeap(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Off-heap page size must be at least 64 bytes!", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void putShouldDemoteTheColdestEntryToTheLowerLevel() throws InvalidPropertiesFormatException {
+        CacheTier cacheTier = createCacheTierWithThreeObjectsCapacityAndCurrentTime100();
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        CacheTierMemory lowerLevel = new CacheTierMemory(props);
+        resourceRegistry.add(lowerLevel);
+        lowerLevel.setCurrentTimeSupplier(() -> 100L);
+        cacheTier.setLowerLevelCache(lowerLevel);
+
+        cacheTier.put(0, "Cold Object");
+        cacheTier.put(1, "Hot Object");
+        cacheTier.put(2, "Warm Object");
+        cacheTier.get(1);
+        cacheTier.get(1);
+        cacheTier.get(2);
+        cacheTier.setDeadline(0, 1000L);
+        cacheTier.put(3, "A new Object");
+
+        assertFalse(cacheTier.containsKey(0));
+        assertEquals("Cold Object", lowerLevel.get(0));
+        assertEquals(1000L, lowerLevel.getDeadline(0));
+    }
+
+    @Test
+    public void putShouldPassAnObjectLargerThanAPageToTheLowerLevel() throws InvalidPropertiesFormatException {
+        CacheTierOffHeap cacheTier = (CacheTierOffHeap) createCacheTierWithThreeObjectsCapacityAndCurrentTime100();
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        CacheTierMemory lowerLevel = new CacheTierMemory(props);
+        resourceRegistry.add(lowerLevel);
+        cacheTier.setLowerLevelCache(lowerLevel);
+
+        Serializable largeObject = new byte[1000];
+        cacheTier.put(0, largeObject);
+        assertFalse(cacheTier.containsKey(0));
+        assertTrue(lowerLevel.containsKey(0));
+        assertEquals(0, cacheTier.getUsedBytes());
+    }
+
+    @Test
+    public void putShouldPassTheDeadlineOfAnObjectLargerThanAPageToTheLowerLevel()
+            throws InvalidPropertiesFormatException {
+        CacheTierOffHeap cacheTier = (CacheTierOffHeap) createCacheTierWithThreeObjectsCapacityAndCurrentTime100();
+        Properties props = new Properties();
+        props.setProperty("cache.size.in.memory.entries", "10");
+        CacheTierMemory lowerLevel = new CacheTierMemory(props);
+        resourceRegistry.add(lowerLevel);
+        lowerLevel.setCurrentTimeSupplier(() -> 100L);
+        cacheTier.setLowerLevelCache(lowerLevel);
+
+        cacheTier.put(0, new byte[1000], 1000L);
+        cacheTier.put(1, "An object", 2000L);
+
+        assertEquals(1000L, lowerLevel.getDeadline(0));
+        assertEquals(2000L, cacheTier.getDeadline(1));
+    }
+
+    @Test
+    public void putShouldEvictAnEntryOfTheSameSizeClass() throws InvalidPropertiesFormatException {
+        CacheTierOffHeap cacheTier = createCacheTierWithTwoPagesOf1024Bytes();
+        cacheTier.put(100, new byte[400]);
+        cacheTier.put(101, new byte[400]);
+        for (int i = 0; i < 16; i++) {
+            cacheTier.put(i, "Object " + i);
+            cacheTier.get(i);
+        }
+        cacheTier.put(16, "Object 16");
+
+        assertTrue(cacheTier.containsKey(100));
+        assertTrue(cacheTier.containsKey(101));
+        assertTrue(cacheTier.containsKey(16));
+        int smallObjects = 0;
+        for (int i = 0; i < 16; i++) {
+            smallObjects += cacheTier.containsKey(i) ? 1 : 0;
+        }
+        assertEquals(15, smallObjects);
+    }
+
+    @Test
+    public void putShouldMoveAPageFromAnotherSizeClassIfItsSizeClassHasNoEntries()
+            throws InvalidPropertiesFormatException {
+        CacheTierOffHeap cacheTier = createCacheTierWithTwoPagesOf1024Bytes();
+        for (int i = 0; i < 32; i++) {
+            cacheTier.put(i, "Object " + i);
+            if (i != 0) {
+                cacheTier.get(i);
+            }
+        }
+        cacheTier.put(100, new byte[400]);
+
+        assertTrue(cacheTier.containsKey(100));
+        for (int i = 0; i < 32; i++) {
+            assertEquals(i >= 16, cacheTier.containsKey(i));
+        }
+        assertEquals(16 * 64 + 512, cacheTier.getUsedBytes());
+    }
+
+    @Test
+    public void removeShouldReleaseTheOffHeapMemory() {
+        CacheTierOffHeap cacheTier = (CacheTierOffHeap) tierCache;
+        cacheTier.put(0, "An object");
+        assertTrue(cacheTier.getUsedBytes() > 0);
+        cacheTier.remove(0);
+        assertEquals(0, cacheTier.getUsedBytes());
+    }
+
+    @Override
+    protected CacheTier createCacheTier(Properties props) {
+        try {
+            props.setProperty("cache.size.offheap.bytes", "1048576");
+            CacheTier cacheTier = new CacheTierOffHeap(props);
+            resourceRegistry.add(cacheTier);
+            return cacheTier;
+        } catch (InvalidPropertiesFormatException e) {
+            LOG.log(Level.WARNING, "Attempt to create an off-heap cache tier with invalid properties.", e);
+            fail("Attempt to create an off-heap cache tier with invalid properties.");
+        }
+        return null;
+    }
+
+    private CacheTierOffHeap createCacheTierWithTwoPagesOf1024Bytes() throws InvalidPropertiesFormatException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.offheap.bytes", "2048");
+        props.setProperty("cache.offheap.page.bytes", "1024");
+        CacheTierOffHeap cacheTier = new CacheTierOffHeap(props);
+        resourceRegistry.add(cacheTier);
+        return cacheTier;
+    }
+
+    @Override
+    protected CacheTier createCacheTierWithThreeObjectsCapacityAndCurrentTime100() {
+        try {
+            Properties props = new Properties();
+            props.setProperty("cache.size.offheap.bytes", "192");
+            props.setProperty("cache.offheap.page.bytes", "64");
+            CacheTier cacheTier = new CacheTierOffHeap(props);
+            cacheTier.setCurrentTimeSupplier(() -> 100L);
+            resourceRegistry.add(cacheTier);
+            return cacheTier;
+        } catch (InvalidPropertiesFormatException e) {
+            LOG.log(Level.WARNING, "Attempt to create an off-heap cache tier with invalid properties.", e);
+            fail("Attempt to create an off-heap cache tier with invalid properties.");
+        }
+        return null;
+    }
+}
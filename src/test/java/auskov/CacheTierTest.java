@@ -4,9 +4,11 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -483,6 +485,31 @@ public abstract class CacheTierTest {
         assertEquals(weight, tierCache.getWeight(key));
     }
 
+    @Test
+    public void transferValueShouldWriteTheSerializedObjectAndIncrementTheWeight() throws Exception {
+        long key = 0;
+        tierCache.put(key, "An Object");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaValueSerializer serializer = new JavaValueSerializer();
+
+        long length = tierCache.transferValue(key, Channels.newChannel(bytes), serializer);
+        assertEquals(bytes.size(), length);
+        assertEquals("An Object", serializer.deserialize(bytes.toByteArray()));
+        assertEquals(1, tierCache.getWeight(key));
+    }
+
+    @Test
+    public void transferValueShouldReturnMinusOneIfTheObjectHasExpired() throws IOException {
+        tierCache.setCurrentTimeSupplier(() -> 100L);
+        long key = 0;
+        tierCache.put(key, "An Object");
+        tierCache.setDeadline(key, 50L);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        assertEquals(-1, tierCache.transferValue(key, Channels.newChannel(bytes), new JavaValueSerializer()));
+        assertEquals(-1, tierCache.transferValue(1, Channels.newChannel(bytes), new JavaValueSerializer()));
+        assertEquals(0, bytes.size());
+    }
+
     @Test
     public void setWeightShouldDoNothingIfTheObjectDoesNotExist() {
         long key = 0;
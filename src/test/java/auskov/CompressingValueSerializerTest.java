@@ -0,0 +1,86 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.InvalidPropertiesFormatException;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressingValueSerializerTest {
+    private static final String TEXT = String.join(",", Collections.nCopies(100,
+            "{\"name\":\"An object\",\"tags\":[\"cache\",\"tier\"]}"));
+
+    private final ValueSerializer plain = new CompactValueSerializer();
+    private final CompressingValueSerializer serializer = new CompressingValueSerializer(plain, 64, 1);
+
+    @Test
+    public void compressibleValuesShouldBeStoredShorter() throws Exception {
+        byte[] data = serializer.serialize(TEXT);
+        assertTrue(data.length * 4 < plain.serialize(TEXT).length);
+        assertEquals(TEXT, serializer.deserialize(data));
+    }
+
+    @Test
+    public void valuesBelowTheThresholdShouldBeStoredAsTheyAre() throws Exception {
+        byte[] data = serializer.serialize("aaaaaaaaaa");
+        assertEquals(plain.serialize("aaaaaaaaaa").length + 1, data.length);
+        assertEquals("aaaaaaaaaa", serializer.deserialize(data));
+    }
+
+    @Test
+    public void incompressibleValuesShouldBeStoredAsTheyAre() throws Exception {
+        byte[] random = new byte[1024];
+        new Random(42).nextBytes(random);
+        byte[] data = serializer.serialize(random);
+        assertEquals(plain.serialize(random).length + 1, data.length);
+        assertArrayEquals(random, (byte[]) serializer.deserialize(data));
+    }
+
+    @Test
+    public void creatingCacheTierFilesystemWithUnknownCompressionShouldThrowAnException() {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "100");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.compression", "zstd");
+        try {
+            new CacheTierFilesystem(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown compression: zstd", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void compressionShouldLetTheSameBudgetHoldMoreEntries() throws IOException {
+        assertTrue(holdCount("deflate") > 4 * holdCount("none"));
+    }
+
+    private static int holdCount(String compression) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", "65536");
+        props.setProperty("cache.filesystem.storage.path", ".");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.compression", compression);
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            Serializable[] values = new Serializable[200];
+            for (int key = 0; key < values.length; key++) {
+                values[key] = key + TEXT;
+                cacheTier.put(key, values[key]);
+            }
+            int count = 0;
+            for (int key = 0; key < values.length; key++) {
+                if (cacheTier.containsKey(key)) {
+                    assertEquals(values[key], cacheTier.get(key));
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+}
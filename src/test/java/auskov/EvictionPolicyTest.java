@@ -0,0 +1,130 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.util.InvalidPropertiesFormatException;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest {
+
+    @Test
+    public void createShouldThrowAnExceptionForAnUnknownPolicy() {
+        try {
+            EvictionPolicy.create("random", 16);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown eviction policy: random", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void victimShouldBeNegativeIfNoSlotsAreTracked() throws InvalidPropertiesFormatException {
+        for (String name : new String[]{"lru", "lfu", "fifo", "slru", "arc"}) {
+            EvictionPolicy policy = EvictionPolicy.create(name, 16);
+            assertTrue(name, policy.victim() < 0);
+            policy.add(3, 3, 0L);
+            policy.remove(3);
+            policy.remove(5);
+            assertTrue(name, policy.victim() < 0);
+        }
+    }
+
+    @Test
+    public void lruShouldEvictTheLeastRecentlyAccessedSlot() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("lru", 4);
+        addSlots(policy, 3);
+        policy.access(0);
+        assertEquals(1, evict(policy));
+        assertEquals(2, evict(policy));
+        assertEquals(0, evict(policy));
+    }
+
+    @Test
+    public void fifoShouldIgnoreAccesses() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("fifo", 4);
+        addSlots(policy, 3);
+        policy.access(0);
+        assertEquals(0, evict(policy));
+        assertEquals(1, evict(policy));
+    }
+
+    @Test
+    public void lfuShouldEvictTheSlotWithTheLowestWeight() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("lfu", 4);
+        addSlots(policy, 3);
+        policy.access(0);
+        policy.setWeight(1, 5L);
+        assertEquals(2, evict(policy));
+        assertEquals(0, evict(policy));
+    }
+
+    @Test
+    public void slruShouldEvictFromProbationBeforeProtected() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("slru", 8);
+        addSlots(policy, 5);
+        policy.access(0);
+        policy.access(1);
+        assertEquals(2, evict(policy));
+        assertEquals(3, evict(policy));
+        assertEquals(4, evict(policy));
+        assertEquals(0, evict(policy));
+    }
+
+    @Test
+    public void arcShouldProtectSlotsAccessedMoreThanOnce() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("arc", 8);
+        addSlots(policy, 4);
+        policy.access(0);
+        policy.access(1);
+        assertEquals(2, evict(policy));
+        assertEquals(3, evict(policy));
+    }
+
+    @Test
+    public void arcShouldAdmitAKeyFromAGhostListAsFrequent() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("arc", 8);
+        addSlots(policy, 3);
+        assertEquals(0, evict(policy));
+        policy.add(0, 0, 0L);
+        policy.add(3, 3, 0L);
+        policy.add(4, 4, 0L);
+        assertEquals(1, evict(policy));
+        assertEquals(2, evict(policy));
+        assertEquals(3, evict(policy));
+        assertEquals(0, evict(policy));
+        assertEquals(4, evict(policy));
+    }
+
+    @Test
+    public void arcShouldForgetTheOldestGhostsBeyondTheCapacity() throws InvalidPropertiesFormatException {
+        EvictionPolicy policy = EvictionPolicy.create("arc", 8);
+        addSlots(policy, 3);
+        for (int i = 0; i < 3; i++) {
+            evict(policy);
+        }
+        for (int slot = 0; slot < 3; slot++) {
+            policy.add(slot, slot + 3, 0L);
+        }
+        for (int i = 0; i < 3; i++) {
+            evict(policy);
+        }
+        policy.add(0, 0, 0L);
+        policy.add(1, 5, 0L);
+        assertEquals(1, evict(policy));
+        assertEquals(0, evict(policy));
+    }
+
+    private static void addSlots(EvictionPolicy policy, int count) {
+        for (int slot = 0; slot < count; slot++) {
+            policy.add(slot, slot, 0L);
+        }
+    }
+
+    private static int evict(EvictionPolicy policy) {
+        int victim = policy.victim();
+        policy.evict(victim);
+        return victim;
+    }
+}
@@ -0,0 +1,54 @@
+package auskov;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Compares get latencies of the filesystem tier engines and read modes. Not a unit test, run it with
+ * {@code java auskov.FilesystemReadBenchmark [entries] [gets]}.
+ */
+public class FilesystemReadBenchmark {
+    private static final Logger LOG = Logger.getLogger(FilesystemReadBenchmark.class.getName());
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int gets = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        run("files", "stream", entries, gets);
+        run("segments", "stream", entries, gets);
+        run("segments", "mmap", entries, gets);
+    }
+
+    private static void run(String engine, String readMode, int entries, int gets) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("cache.size.filesystem.bytes", String.valueOf(Long.MAX_VALUE));
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("benchmark").toString());
+        props.setProperty("cache.filesystem.engine", engine);
+        props.setProperty("cache.filesystem.segment.bytes", "1048576");
+        props.setProperty("cache.filesystem.read.mode", readMode);
+        try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+            byte[] value = new byte[512];
+            for (long key = 0; key < entries; key++) {
+                cacheTier.put(key, value);
+            }
+            Random random = new Random(42);
+            for (int i = 0; i < gets / 10; i++) {
+                cacheTier.get(random.nextInt(entries));
+            }
+            long[] latencies = new long[gets];
+            for (int i = 0; i < gets; i++) {
+                long key = random.nextInt(entries);
+                long start = System.nanoTime();
+                cacheTier.get(key);
+                latencies[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(latencies);
+            LOG.info(String.format("%s/%s: p50 %d us, p99 %d us, p99.9 %d us", engine, readMode,
+                    latencies[gets / 2] / 1000, latencies[(int) (gets * 0.99)] / 1000,
+                    latencies[(int) (gets * 0.999)] / 1000));
+        }
+    }
+}
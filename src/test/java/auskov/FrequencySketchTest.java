@@ -0,0 +1,47 @@
+package auskov;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrequencySketchTest {
+
+    @Test
+    public void frequencyShouldBeZeroForAnUnknownKey() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        assertEquals(0, sketch.frequency(42));
+    }
+
+    @Test
+    public void frequencyShouldGrowWithIncrements() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment(7);
+        }
+        sketch.increment(8);
+        assertEquals(5, sketch.frequency(7));
+        assertEquals(1, sketch.frequency(8));
+    }
+
+    @Test
+    public void frequencyShouldNotExceedFifteen() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(1);
+        }
+        assertEquals(15, sketch.frequency(1));
+    }
+
+    @Test
+    public void countersShouldBeHalvedAfterTheSamplePeriod() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 15; i++) {
+            sketch.increment(-1);
+        }
+        assertEquals(15, sketch.frequency(-1));
+        for (long key = 0; key < 145; key++) {
+            sketch.increment(key);
+        }
+        assertTrue(sketch.frequency(-1) <= 7);
+    }
+}
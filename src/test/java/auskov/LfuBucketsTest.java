@@ -0,0 +1,175 @@
+package auskov;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LfuBucketsTest {
+    private LfuBuckets buckets;
+
+    @Before
+    public void setUp() {
+        buckets = new LfuBuckets();
+    }
+
+    @Test
+    public void coldestShouldReturnNegativeSlotIfEmpty() {
+        assertTrue(buckets.coldest() < 0);
+    }
+
+    @Test
+    public void coldestShouldReturnTheEntryWithTheLowestWeight() {
+        buckets.add(0, 0L);
+        buckets.add(1, 0L);
+        buckets.add(2, 0L);
+        buckets.increment(0);
+        buckets.increment(2);
+        buckets.increment(2);
+        assertEquals(1, buckets.coldest());
+        buckets.remove(1);
+        assertEquals(0, buckets.coldest());
+    }
+
+    @Test
+    public void halveWeightsShouldMergeBucketsWithEqualHalvedWeights() {
+        buckets.add(0, 5L);
+        buckets.add(1, 4L);
+        buckets.add(2, 9L);
+        buckets.halveWeights();
+        assertEquals(1, buckets.coldest());
+        buckets.remove(1);
+        assertEquals(0, buckets.coldest());
+        buckets.increment(0);
+        buckets.add(3, 3L);
+        assertEquals(0, buckets.coldest());
+        buckets.remove(0);
+        assertEquals(3, buckets.coldest());
+        buckets.remove(3);
+        assertEquals(2, buckets.coldest());
+    }
+
+    @Test
+    public void coldestShouldPreferTheOldestEntryAmongEqualWeights() {
+        buckets.add(3, 5L);
+        buckets.add(1, 5L);
+        buckets.add(2, 5L);
+        assertEquals(3, buckets.coldest());
+        buckets.remove(3);
+        assertEquals(1, buckets.coldest());
+    }
+
+    @Test
+    public void setWeightShouldMoveTheEntryInBothDirections() {
+        buckets.add(0, 10L);
+        buckets.add(1, 20L);
+        buckets.add(2, 30L);
+        buckets.setWeight(0, 25L);
+        assertEquals(1, buckets.coldest());
+        buckets.setWeight(2, 1L);
+        assertEquals(2, buckets.coldest());
+        buckets.setWeight(2, 40L);
+        buckets.remove(1);
+        assertEquals(0, buckets.coldest());
+    }
+
+    @Test
+    public void clearShouldForgetAllEntries() {
+        buckets.add(0, 1L);
+        buckets.add(1, 2L);
+        buckets.clear();
+        assertTrue(buckets.coldest() < 0);
+        buckets.add(1, 3L);
+        assertEquals(1, buckets.coldest());
+    }
+
+    @Test
+    public void coldestShouldMatchAFullScanUnderRandomOperations() {
+        int slots = 64;
+        buckets.ensureCapacity(slots);
+        long[] weights = new long[slots];
+        boolean[] present = new boolean[slots];
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            int slot = random.nextInt(slots);
+            int operation = random.nextInt(4);
+            if (!present[slot]) {
+                weights[slot] = random.nextInt(8);
+                buckets.add(slot, weights[slot]);
+                present[slot] = true;
+            } else if (operation == 0) {
+                buckets.remove(slot);
+                present[slot] = false;
+            } else if (operation == 1) {
+                weights[slot] = random.nextInt(8);
+                buckets.setWeight(slot, weights[slot]);
+            } else {
+                weights[slot]++;
+                buckets.increment(slot);
+            }
+            long minWeight = Long.MAX_VALUE;
+            for (int s = 0; s < slots; s++) {
+                if (present[s]) {
+                    minWeight = Math.min(minWeight, weights[s]);
+                }
+            }
+            int coldest = buckets.coldest();
+            if (minWeight == Long.MAX_VALUE) {
+                assertTrue(coldest < 0);
+                continue;
+            }
+            assertTrue(present[coldest]);
+            assertEquals(minWeight, weights[coldest]);
+        }
+    }
+
+    @Test
+    public void coldestShouldMatchAFullScanUnderWideWeightsAndHalving() {
+        int slots = 256;
+        buckets.ensureCapacity(slots);
+        long[] weights = new long[slots];
+        boolean[] present = new boolean[slots];
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            int slot = random.nextInt(slots);
+            int operation = random.nextInt(100);
+            if (operation == 0) {
+                for (int s = 0; s < slots; s++) {
+                    weights[s] >>= 1;
+                }
+                buckets.halveWeights();
+            } else if (!present[slot]) {
+                weights[slot] = random.nextInt(1000);
+                buckets.add(slot, weights[slot]);
+                present[slot] = true;
+            } else if (operation < 20) {
+                buckets.remove(slot);
+                present[slot] = false;
+            } else if (operation < 50) {
+                weights[slot] = random.nextInt(1000);
+                buckets.setWeight(slot, weights[slot]);
+            } else if (operation < 60 && weights[slot] > 0) {
+                weights[slot]--;
+                buckets.setWeight(slot, weights[slot]);
+            } else {
+                weights[slot]++;
+                buckets.increment(slot);
+            }
+            long minWeight = Long.MAX_VALUE;
+            for (int s = 0; s < slots; s++) {
+                if (present[s]) {
+                    minWeight = Math.min(minWeight, weights[s]);
+                }
+            }
+            int coldest = buckets.coldest();
+            if (minWeight == Long.MAX_VALUE) {
+                assertTrue(coldest < 0);
+                continue;
+            }
+            assertTrue(present[coldest]);
+            assertEquals(minWeight, weights[coldest]);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package auskov;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongEntryTableTest {
+    private LongEntryTable table;
+
+    @Before
+    public void setUp() {
+        table = new LongEntryTable();
+    }
+
+    @Test
+    public void findShouldReturnNegativeSlotIfTheKeyIsMissing() {
+        assertTrue(table.find(42L) < 0);
+    }
+
+    @Test
+    public void addShouldStoreTheValueWithZeroWeightAndNoDeadline() {
+        int slot = table.add(42L, "An object");
+        assertEquals(slot, table.find(42L));
+        assertEquals("An object", table.value(slot));
+        assertEquals(0L, table.weight(slot));
+        assertEquals(Long.MAX_VALUE, table.deadline(slot));
+        assertEquals(42L, table.key(slot));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void slotShouldHoldTheWeightAndTheDeadlineOfTheEntry() {
+        int slot = table.add(7L, "An object");
+        table.setWeight(slot, 5L);
+        table.setDeadline(slot, 100L);
+        assertEquals(5L, table.weight(table.find(7L)));
+        assertEquals(100L, table.deadline(table.find(7L)));
+    }
+
+    @Test
+    public void removeSlotShouldForgetTheKey() {
+        int slot = table.add(1L, "1");
+        table.add(2L, "2");
+        table.removeSlot(slot);
+        assertTrue(table.find(1L) < 0);
+        assertTrue(table.find(2L) >= 0);
+        assertEquals(1, table.size());
+        assertFalse(table.isUsed(slot));
+    }
+
+    @Test
+    public void slotsShouldStayStableWhileOtherEntriesAreAddedAndRemoved() {
+        int slot = table.add(1000L, "stable");
+        for (long key = 0; key < 500; key++) {
+            table.add(key, key);
+        }
+        for (long key = 0; key < 500; key += 2) {
+            table.removeSlot(table.find(key));
+        }
+        assertEquals(slot, table.find(1000L));
+        assertEquals("stable", table.value(slot));
+    }
+
+    @Test
+    public void clearShouldWipeAllEntries() {
+        table.add(1L, "1");
+        table.add(2L, "2");
+        table.clear();
+        assertEquals(0, table.size());
+        assertTrue(table.find(1L) < 0);
+        assertTrue(table.find(2L) < 0);
+    }
+
+    @Test
+    public void tableShouldBehaveLikeAMapUnderRandomOperations() {
+        Random random = new Random(17);
+        Map<Long, Object> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            long key = random.nextInt(2000) - 1000;
+            int slot = table.find(key);
+            assertEquals(expected.containsKey(key), slot >= 0);
+            if (slot >= 0) {
+                assertEquals(expected.get(key), table.value(slot));
+                if (random.nextBoolean()) {
+                    table.removeSlot(slot);
+                    expected.remove(key);
+                }
+            } else {
+                table.add(key, i);
+                expected.put(key, i);
+            }
+        }
+        assertEquals(expected.size(), table.size());
+    }
+}
@@ -0,0 +1,133 @@
+package auskov;
+
+import org.ehcache.CachePersistenceException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class MyCacheSimpleImplConcurrencyTest {
+    private static final int THREADS = 32;
+    private static final int PUTS_PER_THREAD = 1000;
+
+    private MyCache myCache;
+
+    @After
+    public void tearDown() throws CachePersistenceException {
+        if (myCache != null) {
+            myCache.clear();
+            myCache.close();
+        }
+    }
+
+    @Test
+    public void concurrentPutsGetsAndRemovesShouldNotLoseOrDuplicateEntries() throws Exception {
+        myCache = createCache();
+        Map<Long, String> placed = new ConcurrentHashMap<>();
+        Map<Long, Boolean> removed = new ConcurrentHashMap<>();
+        List<Long> published = new ArrayList<>();
+        AtomicReference<String> duplicate = new AtomicReference<>();
+        runConcurrently(THREADS, threadIndex -> {
+            Random random = new Random(threadIndex);
+            for (int i = 0; i < PUTS_PER_THREAD; i++) {
+                String value = "Object " + threadIndex + "-" + i;
+                long key = myCache.put(value);
+                if (placed.putIfAbsent(key, value) != null) {
+                    duplicate.compareAndSet(null, "The key " + key + " was given twice");
+                }
+                synchronized (published) {
+                    published.add(key);
+                }
+                assertValue(key, value, placed, removed);
+                long otherKey;
+                synchronized (published) {
+                    otherKey = published.get(random.nextInt(published.size()));
+                }
+                if (random.nextInt(4) == 0) {
+                    removed.put(otherKey, true);
+                    myCache.remove(otherKey);
+                } else {
+                    assertValue(otherKey, placed.get(otherKey), placed, removed);
+                }
+            }
+        });
+
+        assertNull(duplicate.get());
+        assertEquals(THREADS * PUTS_PER_THREAD, placed.size());
+        for (Map.Entry<Long, String> entry : placed.entrySet()) {
+            if (removed.containsKey(entry.getKey())) {
+                assertFalse(myCache.containsKey(entry.getKey()));
+                assertNull(myCache.get(entry.getKey()));
+            } else {
+                assertEquals(entry.getValue(), myCache.get(entry.getKey()));
+            }
+        }
+    }
+
+    private void assertValue(long key, String value, Map<Long, String> placed, Map<Long, Boolean> removed) {
+        Object actual = myCache.get(key);
+        if (actual == null) {
+            assertTrue("The entry " + key + " was lost", removed.containsKey(key));
+        } else {
+            assertEquals(value, actual);
+            assertEquals(placed.get(key), actual);
+        }
+    }
+
+    private MyCache createCache() throws IOException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.size.in.memory.entries", "64");
+        props.setProperty("cache.memory.concurrency.level", "8");
+        props.setProperty("cache.tiers.offheap", "enable");
+        props.setProperty("cache.size.offheap.bytes", "65536");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.size.filesystem.bytes", "100000000");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("concurrent").toString());
+        props.setProperty("cache.tiers.put.to", "top");
+        return MyCacheSimpleImpl.createCash(props);
+    }
+
+    private void runConcurrently(int threadsCount, ThreadBody body) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadsCount; i++) {
+            final int threadIndex = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    body.run(threadIndex);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    private interface ThreadBody {
+        void run(int threadIndex) throws Exception;
+    }
+}
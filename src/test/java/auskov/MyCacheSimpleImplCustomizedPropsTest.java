@@ -1,13 +1,185 @@
 package auskov;
 
+import org.ehcache.CachePersistenceException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.InvalidPropertiesFormatException;
 import java.util.Properties;
 
+import static org.junit.Assert.*;
+
 public class MyCacheSimpleImplCustomizedPropsTest extends MyCacheCustomizedPropsTest {
     @Override
     protected MyCache createANewCache(Properties props) throws InvalidPropertiesFormatException {
         return MyCacheSimpleImpl.createCash(props);
     }
 
+    @Test
+    public void persistentFilesystemTierShouldKeepEntriesAndKeysAcrossRestarts()
+            throws IOException, CachePersistenceException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "disable");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.persistent", "enable");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("persistent").toString());
+        MyCache myCache = createANewCache(props);
+        long key = myCache.put("An object");
+        long removedKey = myCache.put("A removed object");
+        myCache.remove(removedKey);
+        myCache.close();
+
+        MyCache restartedCache = createANewCache(props);
+        try {
+            assertEquals("An object", restartedCache.get(key));
+            assertFalse(restartedCache.containsKey(removedKey));
+            assertTrue(restartedCache.put("A new object") > removedKey);
+        } finally {
+            restartedCache.clear();
+            restartedCache.close();
+        }
+    }
+
+    @Test
+    public void shouldHoldMoreWithTheOffHeapTierThanOnlyInMemory() throws IOException, CachePersistenceException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.size.in.memory.entries", "4");
+        props.setProperty("cache.tiers.offheap", "enable");
+        props.setProperty("cache.size.offheap.bytes", "65536");
+        props.setProperty("cache.tiers.filesystem", "disable");
+        props.setProperty("cache.tiers.put.to", "top");
+        MyCache myCache = createANewCache(props);
+        try {
+            long[] keys = new long[16];
+            Serializable[] items = new Serializable[16];
+            for (int i = 0; i < 16; i++) {
+                items[i] = "Object " + i;
+                keys[i] = myCache.put(items[i]);
+            }
+            for (int i = 0; i < 16; i++) {
+                assertTrue(myCache.containsKey(keys[i]));
+                assertEquals(items[i], myCache.get(keys[i]));
+            }
+        } finally {
+            myCache.close();
+        }
+    }
+
+    @Test
+    public void shouldServeEntriesWhileTheyAreDemotedAsynchronously() throws IOException, CachePersistenceException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.size.in.memory.entries", "4");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.tiers.put.to", "top");
+        props.setProperty("cache.demotion.async", "enable");
+        props.setProperty("cache.demotion.queue.size", "8");
+        MyCache myCache = createANewCache(props);
+        try {
+            long[] keys = new long[32];
+            Serializable[] items = new Serializable[32];
+            for (int i = 0; i < 32; i++) {
+                items[i] = "Object " + i;
+                keys[i] = myCache.put(items[i]);
+            }
+            for (int i = 0; i < 32; i++) {
+                assertTrue(myCache.containsKey(keys[i]));
+                assertEquals(items[i], myCache.get(keys[i]));
+            }
+        } finally {
+            myCache.close();
+        }
+    }
+
+    @Test
+    public void putStreamShouldStoreTheValueInTheFilesystemTierInChunks()
+            throws IOException, CachePersistenceException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.engine", "segments");
+        props.setProperty("cache.filesystem.chunk.bytes", "1024");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("stream").toString());
+        MyCache myCache = createANewCache(props);
+        try {
+            byte[] payload = new byte[100000];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (i * 7);
+            }
+            long key = myCache.putStream(new ByteArrayInputStream(payload), payload.length);
+
+            assertArrayEquals(payload, CacheTierFilesystemSegmentsTest.readAll(myCache.getStream(key)));
+            assertArrayEquals(payload, (byte[]) myCache.get(key));
+            assertTrue(myCache.put("An object") > key);
+        } finally {
+            myCache.clear();
+            myCache.close();
+        }
+    }
+
+    @Test
+    public void valueLargerThanTheMemoryTierShouldExpireInTheLowerTier()
+            throws IOException, CachePersistenceException, InterruptedException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.size.in.memory.bytes", "100");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.tiers.put.to", "top");
+        props.setProperty("cache.expiration.policy", "time-to-live");
+        props.setProperty("cache.expiration.millis", "300");
+        MyCache myCache = createANewCache(props);
+        try {
+            String item = String.join("", Collections.nCopies(20, "A large object "));
+            long key = myCache.put(item);
+            assertEquals(item, myCache.get(key));
+            Thread.sleep(400);
+            assertNull(myCache.get(key));
+        } finally {
+            myCache.close();
+        }
+    }
+
+    @Test
+    public void valueDemotedPastTheOffHeapTierShouldKeepItsDeadline()
+            throws IOException, CachePersistenceException, InterruptedException {
+        Properties props = new Properties();
+        props.load(MyCacheSimpleImpl.class.getClassLoader().getResourceAsStream("application.properties"));
+        props.setProperty("cache.tiers.memory", "enable");
+        props.setProperty("cache.size.in.memory.entries", "1");
+        props.setProperty("cache.tiers.offheap", "enable");
+        props.setProperty("cache.size.offheap.bytes", "65536");
+        props.setProperty("cache.offheap.page.bytes", "1024");
+        props.setProperty("cache.tiers.filesystem", "enable");
+        props.setProperty("cache.size.filesystem.bytes", "1000000");
+        props.setProperty("cache.filesystem.storage.path", Files.createTempDirectory("demoted").toString());
+        props.setProperty("cache.tiers.put.to", "top");
+        props.setProperty("cache.expiration.policy", "time-to-live");
+        props.setProperty("cache.expiration.millis", "300");
+        MyCache myCache = createANewCache(props);
+        try {
+            String item = String.join("", Collections.nCopies(100, "A large object "));
+            long key = myCache.put(item);
+            myCache.put("A small object");
+            Thread.sleep(400);
+            assertNull(myCache.get(key));
+        } finally {
+            myCache.close();
+        }
+    }
+
     //todo tests of cache.tiers.put.to
 }
\ No newline at end of file
@@ -6,8 +6,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static org.junit.Assert.*;
@@ -60,6 +64,20 @@ public abstract class MyCacheTest {
         assertSame(item, myCache.get(id));
     }
 
+    @Test
+    public void getAsyncShouldReturnTheObjectStoredByPutAsync() throws Exception {
+        long id = myCache.putAsync("Hello").get(10, TimeUnit.SECONDS);
+        assertEquals("Hello", myCache.getAsync(id).get(10, TimeUnit.SECONDS));
+        assertNull(myCache.getAsync(id + 1).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void removeAsyncShouldRemoveTheObject() throws Exception {
+        long id = myCache.put("Hello");
+        myCache.removeAsync(id).get(10, TimeUnit.SECONDS);
+        assertFalse(myCache.containsKey(id));
+    }
+
     @Test
     public void getShouldReturnNullIfTheIdDoesNotExist() {
         assertNull(myCache.get(0));
@@ -176,5 +194,31 @@ public abstract class MyCacheTest {
         assertFalse(myCache.containsKey(id));
     }
 
+    @Test
+    public void getBytesShouldReturnTheSerializedObject() throws Exception {
+        long id = myCache.put("1");
+        ByteBuffer bytes = myCache.getBytes(id);
+        assertEquals("1", new JavaValueSerializer().deserialize(bytes.array()));
+        assertNull(myCache.getBytes(id + 1));
+    }
+
+    @Test
+    public void getStreamShouldReturnTheBytesPlacedWithPutStream() throws Exception {
+        byte[] payload = new byte[5000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        long id = myCache.putStream(new ByteArrayInputStream(payload), payload.length);
+
+        assertArrayEquals(payload, CacheTierFilesystemSegmentsTest.readAll(myCache.getStream(id)));
+        assertArrayEquals(payload, (byte[]) myCache.get(id));
+        assertNull(myCache.getStream(id + 1));
+    }
+
+    @Test(expected = EOFException.class)
+    public void putStreamShouldThrowAnExceptionIfTheStreamIsShorterThanTheLength() throws Exception {
+        myCache.putStream(new ByteArrayInputStream(new byte[10]), 20);
+    }
+
     protected abstract MyCache createANewCache() throws IOException;
 }
\ No newline at end of file
@@ -0,0 +1,530 @@
+package auskov;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class SegmentEntryStoreTest {
+    private File storageDir;
+    private SegmentEntryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        storageDir = Files.createTempDirectory("segments").toFile();
+        store = new SegmentEntryStore(storageDir, 256);
+    }
+
+    @After
+    public void tearDown() {
+        store.clear();
+        store.close();
+        storageDir.delete();
+    }
+
+    @Test
+    public void writeShouldStoreTheValueWithZeroWeightAndNoDeadline() {
+        store.write(1, "An object");
+        assertTrue(store.contains(1));
+        assertEquals("An object", store.readValue(1));
+        assertEquals(0, store.readWeight(1));
+        assertEquals(Long.MAX_VALUE, store.readDeadline(1));
+    }
+
+    @Test
+    public void weightAndDeadlineShouldBeUpdatedInPlace() throws IOException {
+        store.write(1, "An object");
+        store.writeWeight(1, 7);
+        store.writeDeadline(1, 1000L);
+
+        assertEquals(7, store.readWeight(1));
+        assertEquals(1000L, store.readDeadline(1));
+        File segment = new File(storageDir, "segment-0.log");
+        assertEquals(store.entrySize(1, file -> 0L), segment.length());
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            file.seek(16);
+            assertEquals(7, file.readLong());
+            assertEquals(1000L, file.readLong());
+        }
+    }
+
+    @Test
+    public void writeShouldReplaceAnEntryWithTheSameKey() {
+        store.write(1, "An object");
+        store.write(1, "A replaced object");
+        assertEquals("A replaced object", store.readValue(1));
+        assertEquals(SegmentEntryStore.HEADER_SIZE + new SerializedSizeEstimator().applyAsLong("A replaced object"),
+                store.entrySize(1, file -> 0L));
+    }
+
+    @Test
+    public void segmentsShouldRollAndBeDeletedWhenAllTheirRecordsAreRemoved() {
+        for (long key = 0; key < 20; key++) {
+            store.write(key, "An object " + key);
+        }
+        int segments = store.segmentCount();
+        assertTrue(segments > 1);
+        for (long key = 0; key < 10; key++) {
+            store.delete(key);
+        }
+        assertFalse(store.contains(3));
+        assertTrue(store.segmentCount() < segments);
+        for (long key = 10; key < 20; key++) {
+            assertEquals("An object " + key, store.readValue(key));
+        }
+    }
+
+    @Test
+    public void mappedSegmentsShouldServeTheValues() {
+        SegmentEntryStore mappedStore = new SegmentEntryStore(storageDir, 256, true);
+        try {
+            for (long key = 0; key < 20; key++) {
+                mappedStore.write(key, "An object " + key);
+            }
+            mappedStore.writeWeight(0, 5);
+            for (long key = 0; key < 20; key++) {
+                assertEquals("An object " + key, mappedStore.readValue(key));
+            }
+            for (long key = 0; key < 10; key++) {
+                mappedStore.delete(key);
+            }
+            assertEquals("An object 15", mappedStore.readValue(15));
+        } finally {
+            mappedStore.clear();
+            mappedStore.close();
+        }
+        assertEquals(0, storageDir.list().length);
+    }
+
+    @Test
+    public void compactionShouldMoveLiveRecordsOutOfSegmentsWithDeadSpace() throws InterruptedException {
+        SegmentEntryStore compactedStore = new SegmentEntryStore(storageDir, 256, new JavaValueSerializer(), false,
+                50, 0, 0, "none", 0, 1 << 20);
+        try {
+            for (long key = 0; key < 40; key++) {
+                compactedStore.write(key, "An object " + key);
+            }
+            compactedStore.writeWeight(3, 5);
+            compactedStore.writeDeadline(3, 1000L);
+            for (long key = 0; key < 40; key++) {
+                if (key % 4 != 3) {
+                    compactedStore.delete(key);
+                }
+            }
+            long liveBytes = 0;
+            for (long key = 3; key < 40; key += 4) {
+                liveBytes += compactedStore.entrySize(key, file -> 0L);
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (compactedStore.storedBytes() > 2 * liveBytes && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(compactedStore.storedBytes() <= 2 * liveBytes);
+            for (long key = 3; key < 40; key += 4) {
+                assertEquals("An object " + key, compactedStore.readValue(key));
+            }
+            assertEquals(5, compactedStore.readWeight(3));
+            assertEquals(1000L, compactedStore.readDeadline(3));
+        } finally {
+            compactedStore.clear();
+            compactedStore.close();
+        }
+    }
+
+    @Test
+    public void restoreShouldUseTheManifestLeftByClose() {
+        for (long key = 0; key < 20; key++) {
+            store.write(key, "An object " + key);
+        }
+        store.writeWeight(3, 5);
+        store.delete(4);
+        store.close();
+        assertTrue(new File(storageDir, "segments.manifest").exists());
+
+        store = new SegmentEntryStore(storageDir, 256);
+        List<Long> restoredKeys = new ArrayList<>();
+        store.restore(restoredKeys::add);
+        assertEquals(19, restoredKeys.size());
+        assertFalse(store.contains(4));
+        assertEquals(5, store.readWeight(3));
+        assertEquals("An object 19", store.readValue(19));
+        assertTrue(new File(storageDir, "segments.manifest").exists());
+    }
+
+    @Test
+    public void restoreAfterACrashShouldScanTheRecordHeadersInsteadOfTheDirtyManifest() throws IOException {
+        for (long key = 0; key < 10; key++) {
+            store.write(key, "An object " + key);
+        }
+        store.close();
+        store = new SegmentEntryStore(storageDir, 256);
+        store.restore(key -> { });
+        store.delete(2);
+        store.write(10, "An object 10");
+        store.writeWeight(3, 7);
+        File crashedDir = Files.createTempDirectory("segments").toFile();
+        for (File file : storageDir.listFiles()) {
+            if (!file.getName().equals("segments.lock")) {
+                Files.copy(file.toPath(), new File(crashedDir, file.getName()).toPath());
+            }
+        }
+
+        SegmentEntryStore restoredStore = new SegmentEntryStore(crashedDir, 256);
+        try {
+            List<Long> restoredKeys = new ArrayList<>();
+            restoredStore.restore(restoredKeys::add);
+            assertEquals(10, restoredKeys.size());
+            assertFalse(restoredStore.contains(2));
+            assertEquals("An object 10", restoredStore.readValue(10));
+            assertEquals(7, restoredStore.readWeight(3));
+        } finally {
+            restoredStore.clear();
+            restoredStore.close();
+        }
+    }
+
+    @Test
+    public void restoringADirectoryUsedByAnotherStoreShouldFail() {
+        SegmentEntryStore first = new SegmentEntryStore(storageDir, 256);
+        SegmentEntryStore second = new SegmentEntryStore(storageDir, 256);
+        try {
+            first.restore(key -> { });
+            try {
+                second.restore(key -> { });
+                fail();
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().endsWith("is used by another cache!"));
+            }
+            first.close();
+            second.restore(key -> { });
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void restoreShouldScanTheRecordHeadersWithoutTheManifest() {
+        for (long key = 0; key < 20; key++) {
+            store.write(key, "An object " + key);
+        }
+        store.write(7, "A replaced object");
+        store.writeDeadline(3, 1000L);
+        store.delete(4);
+        store.close();
+        new File(storageDir, "segments.manifest").delete();
+
+        store = new SegmentEntryStore(storageDir, 256);
+        List<Long> restoredKeys = new ArrayList<>();
+        store.restore(restoredKeys::add);
+        assertEquals(19, restoredKeys.size());
+        assertFalse(store.contains(4));
+        assertEquals(1000L, store.readDeadline(3));
+        assertEquals("A replaced object", store.readValue(7));
+        store.write(20, "A new object");
+        assertEquals("An object 0", store.readValue(0));
+        assertEquals("A new object", store.readValue(20));
+    }
+
+    @Test
+    public void bufferedRecordsShouldBeServedAndUpdatedBeforeTheyAreWritten() throws IOException {
+        SegmentEntryStore bufferedStore = new SegmentEntryStore(storageDir, 4096, new JavaValueSerializer(), false,
+                0, 0, 1024, "batch", 1000, 1 << 20);
+        File segment = new File(storageDir, "segment-0.log");
+        try {
+            bufferedStore.write(1, "An object");
+            bufferedStore.write(2, "Another object");
+            bufferedStore.writeWeight(1, 7);
+            bufferedStore.delete(2);
+
+            assertEquals(0, segment.length());
+            assertEquals("An object", bufferedStore.readValue(1));
+            assertEquals(7, bufferedStore.readWeight(1));
+            assertFalse(bufferedStore.contains(2));
+            for (long key = 3; key < 40; key++) {
+                bufferedStore.write(key, "An object " + key);
+            }
+            assertTrue(segment.length() > 0);
+            for (long key = 3; key < 40; key++) {
+                assertEquals("An object " + key, bufferedStore.readValue(key));
+            }
+        } finally {
+            bufferedStore.clear();
+            bufferedStore.close();
+        }
+    }
+
+    @Test
+    public void closeShouldWriteTheBufferedRecords() {
+        SegmentEntryStore bufferedStore = new SegmentEntryStore(storageDir, 4096, new JavaValueSerializer(), false,
+                0, 0, 1024, "none", 1000, 1 << 20);
+        bufferedStore.write(1, "An object");
+        bufferedStore.writeDeadline(1, 1000L);
+        bufferedStore.close();
+        new File(storageDir, "segments.manifest").delete();
+
+        store = new SegmentEntryStore(storageDir, 256);
+        List<Long> restoredKeys = new ArrayList<>();
+        store.restore(restoredKeys::add);
+        assertEquals(1, restoredKeys.size());
+        assertEquals("An object", store.readValue(1));
+        assertEquals(1000L, store.readDeadline(1));
+    }
+
+    @Test
+    public void periodicDurabilityShouldWriteTheBufferedRecordsInTheBackground() throws InterruptedException {
+        SegmentEntryStore bufferedStore = new SegmentEntryStore(storageDir, 4096, new JavaValueSerializer(), false,
+                0, 0, 1024, "periodic", 10, 1 << 20);
+        File segment = new File(storageDir, "segment-0.log");
+        try {
+            bufferedStore.write(1, "An object");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (segment.length() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(bufferedStore.entrySize(1, file -> 0L), segment.length());
+            assertEquals("An object", bufferedStore.readValue(1));
+        } finally {
+            bufferedStore.clear();
+            bufferedStore.close();
+        }
+    }
+
+    @Test
+    public void streamedValueShouldBeStoredInChunksAcrossSegmentsAndReadLazily() throws IOException {
+        SegmentEntryStore chunkedStore = chunkedStore(256, 0);
+        try {
+            byte[] value = pattern(1000);
+            chunkedStore.writeStream(1, new ByteArrayInputStream(value), value.length);
+
+            assertEquals(SegmentEntryStore.HEADER_SIZE + 20 + 10 * (SegmentEntryStore.HEADER_SIZE + 100),
+                    chunkedStore.entrySize(1, file -> 0L));
+            assertTrue(chunkedStore.segmentCount() > 3);
+            assertArrayEquals(value, (byte[]) chunkedStore.readValue(1));
+            assertArrayEquals(value, readAll(chunkedStore.readStream(1)));
+            assertNull(chunkedStore.readStream(2));
+            chunkedStore.delete(1);
+            assertEquals(1, chunkedStore.segmentCount());
+        } finally {
+            chunkedStore.clear();
+            chunkedStore.close();
+        }
+    }
+
+    @Test
+    public void streamShouldFailIfTheEntryIsRemovedWhileItIsRead() throws IOException {
+        SegmentEntryStore chunkedStore = chunkedStore(256, 0);
+        try {
+            chunkedStore.writeStream(1, new ByteArrayInputStream(pattern(1000)), 1000);
+            InputStream stream = chunkedStore.readStream(1);
+            assertEquals(100, stream.read(new byte[100]));
+            chunkedStore.delete(1);
+            try {
+                stream.read(new byte[100]);
+            } catch (IOException e) {
+                return;
+            }
+            fail();
+        } finally {
+            chunkedStore.clear();
+            chunkedStore.close();
+        }
+    }
+
+    @Test
+    public void writeStreamShouldKeepTheExistingEntryIfTheStreamIsShorterOrLonger() throws IOException {
+        SegmentEntryStore chunkedStore = chunkedStore(256, 0);
+        try {
+            chunkedStore.write(1, "An object");
+            for (int length : new int[]{500, 1500}) {
+                try {
+                    chunkedStore.writeStream(1, new ByteArrayInputStream(pattern(length)), 1000);
+                    fail();
+                } catch (IOException e) {
+                    assertEquals("An object", chunkedStore.readValue(1));
+                }
+            }
+            chunkedStore.delete(1);
+            assertEquals(1, chunkedStore.segmentCount());
+        } finally {
+            chunkedStore.clear();
+            chunkedStore.close();
+        }
+    }
+
+    @Test
+    public void restoreShouldFindTheChunksOfStreamedValuesWithAndWithoutTheManifest() throws IOException {
+        byte[] value = pattern(1000);
+        for (boolean withManifest : new boolean[]{true, false}) {
+            SegmentEntryStore chunkedStore = chunkedStore(256, 0);
+            chunkedStore.writeStream(1, new ByteArrayInputStream(value), value.length);
+            chunkedStore.write(2, "An object");
+            chunkedStore.writeStream(3, new ByteArrayInputStream(pattern(300)), 300);
+            chunkedStore.writeStream(3, new ByteArrayInputStream(value), value.length);
+            chunkedStore.writeWeight(1, 5);
+            chunkedStore.close();
+            if (!withManifest) {
+                new File(storageDir, "segments.manifest").delete();
+            }
+
+            chunkedStore = chunkedStore(256, 0);
+            try {
+                List<Long> restoredKeys = new ArrayList<>();
+                chunkedStore.restore(restoredKeys::add);
+                assertEquals(3, restoredKeys.size());
+                assertArrayEquals(value, readAll(chunkedStore.readStream(1)));
+                assertArrayEquals(value, readAll(chunkedStore.readStream(3)));
+                assertEquals(5, chunkedStore.readWeight(1));
+                assertEquals("An object", chunkedStore.readValue(2));
+                chunkedStore.delete(1);
+                chunkedStore.delete(2);
+                chunkedStore.delete(3);
+                assertEquals(0, chunkedStore.segmentCount());
+            } finally {
+                chunkedStore.clear();
+                chunkedStore.close();
+            }
+        }
+    }
+
+    @Test
+    public void compactionShouldMoveTheChunksOfStreamedValues() throws Exception {
+        SegmentEntryStore chunkedStore = chunkedStore(512, 40);
+        String padding = String.join("", Collections.nCopies(20, "An object "));
+        try {
+            for (long key = 0; key < 8; key++) {
+                chunkedStore.writeStream(key, new ByteArrayInputStream(pattern(150 + (int) key)), 150 + key);
+                chunkedStore.write(100 + key, padding + key);
+            }
+            long liveBytes = 0;
+            for (long key = 0; key < 8; key++) {
+                chunkedStore.delete(100 + key);
+                if (key % 2 == 0) {
+                    chunkedStore.delete(key);
+                } else {
+                    liveBytes += chunkedStore.entrySize(key, file -> 0L);
+                }
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while (chunkedStore.storedBytes() * 2 > 3 * liveBytes && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(chunkedStore.storedBytes() * 2 <= 3 * liveBytes);
+            for (long key = 1; key < 8; key += 2) {
+                assertArrayEquals(pattern(150 + (int) key), readAll(chunkedStore.readStream(key)));
+            }
+        } finally {
+            chunkedStore.clear();
+            chunkedStore.close();
+        }
+    }
+
+    @Test
+    public void transferShouldNotLockTheStoreAndShouldSendTheValueOfASegmentDeletedMeanwhile() throws Exception {
+        String value = String.join("", Collections.nCopies(200, "v"));
+        store.write(1, value);
+        store.write(2, "Another object");
+        assertEquals(2, store.segmentCount());
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        OutputStream slowTarget = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.write(buffer, offset, length);
+            }
+        };
+        AtomicLong transferred = new AtomicLong();
+        Thread transfer = new Thread(() -> {
+            try {
+                transferred.set(store.transferValue(1, Channels.newChannel(slowTarget)));
+            } catch (IOException e) {
+                transferred.set(-2);
+            }
+        });
+        transfer.start();
+        try {
+            assertTrue(sending.await(10, TimeUnit.SECONDS));
+            CountDownLatch updated = new CountDownLatch(1);
+            new Thread(() -> {
+                store.delete(1);
+                store.write(3, "A third object");
+                updated.countDown();
+            }).start();
+            assertTrue(updated.await(10, TimeUnit.SECONDS));
+            assertEquals("A third object", store.readValue(3));
+            assertFalse(store.contains(1));
+            assertTrue(new File(storageDir, "segment-0.log").exists());
+        } finally {
+            release.countDown();
+        }
+        transfer.join();
+        assertArrayEquals(new JavaValueSerializer().serialize(value), sent.toByteArray());
+        assertEquals(sent.size(), transferred.get());
+        assertFalse(new File(storageDir, "segment-0.log").exists());
+    }
+
+    private SegmentEntryStore chunkedStore(long segmentBytes, int compactionDeadPercent) {
+        return new SegmentEntryStore(storageDir, segmentBytes, new JavaValueSerializer(), false,
+                compactionDeadPercent, 0, 0, "none", 0, 100);
+    }
+
+    private static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + length);
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64];
+        int count;
+        while ((count = stream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void clearShouldDeleteAllSegments() {
+        for (long key = 0; key < 20; key++) {
+            store.write(key, "An object " + key);
+        }
+        store.clear();
+        assertFalse(store.contains(0));
+        assertEquals(0, storageDir.list().length);
+        store.write(1, "An object");
+        assertEquals("An object", store.readValue(1));
+    }
+}
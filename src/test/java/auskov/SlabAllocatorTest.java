@@ -0,0 +1,139 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlabAllocatorTest {
+
+    @Test
+    public void chunkSizeShouldBeThePowerOfTwoNotSmallerThanTheLength() {
+        assertEquals(64, SlabAllocator.chunkSize(1));
+        assertEquals(64, SlabAllocator.chunkSize(64));
+        assertEquals(128, SlabAllocator.chunkSize(65));
+        assertEquals(1024, SlabAllocator.chunkSize(1000));
+    }
+
+    @Test
+    public void releaseShouldFreeTheDirectMemoryOfThePages() {
+        SlabAllocator allocator = new SlabAllocator(1 << 22, 1 << 20);
+        for (int i = 0; i < 4; i++) {
+            allocator.allocate(1 << 20);
+        }
+        long allocatedBytes = directMemoryUsed();
+        allocator.release();
+
+        assertTrue(allocatedBytes - directMemoryUsed() >= 1 << 22);
+    }
+
+    @Test
+    public void readShouldReturnTheWrittenBytes() {
+        SlabAllocator allocator = new SlabAllocator(4096, 1024);
+        byte[] data = "Some bytes to keep off the heap".getBytes();
+        long address = allocator.allocate(data.length);
+        allocator.write(address, data);
+        assertArrayEquals(data, allocator.read(address, data.length));
+    }
+
+    @Test
+    public void allocateShouldFailIfTheMemoryIsExhausted() {
+        SlabAllocator allocator = new SlabAllocator(1024, 1024);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(allocator.allocate(64) >= 0);
+        }
+        assertTrue(allocator.allocate(64) < 0);
+        assertEquals(1024, allocator.usedBytes());
+    }
+
+    @Test
+    public void allocateShouldFailIfTheLengthExceedsThePage() {
+        SlabAllocator allocator = new SlabAllocator(4096, 1024);
+        assertTrue(allocator.allocate(1025) < 0);
+    }
+
+    @Test
+    public void freedPagesShouldBeReusedByOtherSizeClasses() {
+        SlabAllocator allocator = new SlabAllocator(1024, 512);
+        List<Long> small = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            small.add(allocator.allocate(50));
+        }
+        assertTrue(allocator.allocate(300) < 0);
+        for (int i = 0; i < 8; i++) {
+            allocator.free(small.get(i));
+        }
+        long large = allocator.allocate(300);
+        assertTrue(large >= 0);
+        assertEquals(8 * 64 + 512, allocator.usedBytes());
+    }
+
+    @Test
+    public void freedChunksShouldBeReusedBeforeTheRestOfThePage() {
+        SlabAllocator allocator = new SlabAllocator(1024, 1024);
+        long first = allocator.allocate(100);
+        long second = allocator.allocate(100);
+        assertEquals(first + 128, second);
+        allocator.free(first);
+        assertEquals(first, allocator.allocate(100));
+        assertEquals(second + 128, allocator.allocate(100));
+    }
+
+    @Test
+    public void pagesShouldCountThePagesServingTheSizeClass() {
+        SlabAllocator allocator = new SlabAllocator(4096, 1024);
+        List<Long> small = new ArrayList<>();
+        for (int i = 0; i < 17; i++) {
+            small.add(allocator.allocate(64));
+        }
+        allocator.allocate(1000);
+        assertEquals(2, allocator.pages(SlabAllocator.sizeClass(64)));
+        assertEquals(1, allocator.pages(SlabAllocator.sizeClass(1000)));
+        allocator.free(small.get(16));
+        assertEquals(1, allocator.pages(SlabAllocator.sizeClass(64)));
+    }
+
+    @Test
+    public void clearShouldReleaseAllChunks() {
+        SlabAllocator allocator = new SlabAllocator(1024, 1024);
+        while (allocator.allocate(100) >= 0) {
+            continue;
+        }
+        allocator.clear();
+        assertEquals(0, allocator.usedBytes());
+        assertTrue(allocator.allocate(1024) >= 0);
+    }
+
+    @Test
+    public void chunksShouldNotOverlap() {
+        SlabAllocator allocator = new SlabAllocator(16384, 1024);
+        List<Long> addresses = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            byte[] data = new byte[40 + i * 5];
+            Arrays.fill(data, (byte) i);
+            long address = allocator.allocate(data.length);
+            assertTrue(address >= 0);
+            allocator.write(address, data);
+            addresses.add(address);
+            contents.add(data);
+        }
+        for (int i = 0; i < addresses.size(); i++) {
+            assertArrayEquals(contents.get(i), allocator.read(addresses.get(i), contents.get(i).length));
+        }
+    }
+
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+}
@@ -0,0 +1,39 @@
+package auskov;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlotListTest {
+
+    @Test
+    public void pollFirstShouldReturnSlotsInInsertionOrder() {
+        SlotList list = new SlotList(4);
+        list.addLast(2);
+        list.addLast(0);
+        list.addLast(3);
+        assertEquals(2, list.pollFirst());
+        assertEquals(0, list.pollFirst());
+        assertEquals(3, list.pollFirst());
+        assertTrue(list.pollFirst() < 0);
+    }
+
+    @Test
+    public void moveToLastShouldPutTheSlotAtTheTail() {
+        SlotList list = new SlotList(4);
+        list.addLast(0);
+        list.addLast(1);
+        list.addLast(2);
+        list.moveToLast(0);
+        list.remove(1);
+        list.remove(3);
+        assertEquals(2, list.size());
+        assertEquals(2, list.head());
+        assertFalse(list.contains(1));
+        list.ensureCapacity(8);
+        list.addLast(7);
+        assertEquals(2, list.pollFirst());
+        assertEquals(0, list.pollFirst());
+        assertEquals(7, list.pollFirst());
+    }
+}
@@ -0,0 +1,121 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    @Test
+    public void advanceShouldExpireOnlyTheSlotsWhoseDeadlineHasPassed() {
+        TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule(0, 50L);
+        wheel.schedule(1, 100L);
+        wheel.schedule(2, 150L);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(100L, expired::add);
+        assertTrue(expired.contains(0));
+        assertTrue(expired.contains(1));
+        assertFalse(expired.contains(2));
+        expired.clear();
+        wheel.advance(149L, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(150L, expired::add);
+        assertEquals(1, expired.size());
+        assertEquals(2, (int) expired.get(0));
+    }
+
+    @Test
+    public void advanceShouldExpireSlotsScheduledInThePast() {
+        TimerWheel wheel = new TimerWheel(1000L);
+        wheel.schedule(0, 99L);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(1000L, expired::add);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void advanceShouldCascadeFarDeadlinesDownToExpiry() {
+        TimerWheel wheel = new TimerWheel(0L);
+        long farDeadline = 3L * 24 * 60 * 60 * 1000 + 17;
+        wheel.schedule(0, farDeadline);
+        List<Integer> expired = new ArrayList<>();
+        for (long now = 0; now < farDeadline; now += 60_000) {
+            wheel.advance(now, expired::add);
+        }
+        assertTrue(expired.isEmpty());
+        wheel.advance(farDeadline, expired::add);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void scheduleShouldNotTrackSlotsWithoutDeadline() {
+        TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule(0, Long.MAX_VALUE);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(Long.MAX_VALUE - 1, expired::add);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void scheduleShouldReplaceThePreviousDeadline() {
+        TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule(0, 10L);
+        wheel.schedule(0, 10_000L);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(100L, expired::add);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void cancelShouldPreventTheExpiry() {
+        TimerWheel wheel = new TimerWheel(0L);
+        wheel.schedule(0, 10L);
+        wheel.cancel(0);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(100L, expired::add);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void advanceShouldHandleTheClockGoingBackwards() {
+        TimerWheel wheel = new TimerWheel(System.currentTimeMillis());
+        wheel.schedule(0, 99L);
+        wheel.schedule(1, 1000L);
+        List<Integer> expired = new ArrayList<>();
+        wheel.advance(100L, expired::add);
+        assertEquals(1, expired.size());
+        assertEquals(0, (int) expired.get(0));
+    }
+
+    @Test
+    public void advanceShouldExpireTheSameSlotsAsAFullScan() {
+        int slots = 1000;
+        TimerWheel wheel = new TimerWheel(slots, 0L);
+        long[] deadlines = new long[slots];
+        boolean[] scheduled = new boolean[slots];
+        Random random = new Random(11);
+        for (int slot = 0; slot < slots; slot++) {
+            deadlines[slot] = random.nextInt(10_000_000);
+            scheduled[slot] = true;
+            wheel.schedule(slot, deadlines[slot]);
+        }
+        long now = 0;
+        while (now < 10_000_000) {
+            now += random.nextInt(50_000);
+            final long currentTime = now;
+            wheel.advance(now, slot -> {
+                assertTrue(scheduled[slot]);
+                assertTrue(deadlines[slot] <= currentTime);
+                scheduled[slot] = false;
+            });
+            for (int slot = 0; slot < slots; slot++) {
+                assertFalse(scheduled[slot] && deadlines[slot] <= now);
+            }
+        }
+    }
+}
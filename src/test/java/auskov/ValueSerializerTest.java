@@ -0,0 +1,176 @@
+package auskov;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ValueSerializerTest {
+
+    public static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int x;
+        private final int y;
+
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * x + y;
+        }
+    }
+
+    public static class PointCodec implements ValueCodec<Point> {
+        @Override
+        public void write(Point value, DataOutput out) throws IOException {
+            out.writeInt(value.x);
+            out.writeInt(value.y);
+        }
+
+        @Override
+        public Point read(DataInput in) throws IOException {
+            return new Point(in.readInt(), in.readInt());
+        }
+    }
+
+    @Test
+    public void createShouldReturnTheJavaSerializerByDefault() throws InvalidPropertiesFormatException {
+        assertTrue(ValueSerializer.create(new Properties()) instanceof JavaValueSerializer);
+    }
+
+    @Test
+    public void createShouldThrowAnExceptionForAnUnknownSerializer() {
+        Properties props = new Properties();
+        props.setProperty("cache.serializer", "kryo");
+        try {
+            ValueSerializer.create(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown serializer: kryo", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void compactSerializerShouldRestoreCommonTypes() throws Exception {
+        CompactValueSerializer serializer = new CompactValueSerializer();
+        HashMap<String, Serializable> map = new HashMap<>();
+        map.put("list", new ArrayList<>(Arrays.asList(1L, "two", null, 3.0)));
+        map.put("set", new LinkedHashSet<>(Arrays.asList('a', (short) 2, (byte) 3)));
+        Serializable[] values = {"An object", 42L, 42, 4.2f, true, map, new Date(42)};
+        for (Serializable value : values) {
+            assertEquals(value, serializer.deserialize(serializer.serialize(value)));
+        }
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) serializer.deserialize(serializer.serialize(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void compactSerializerShouldBeShorterThanJavaSerialization() throws IOException {
+        assertEquals(9, new CompactValueSerializer().serialize(42L).length);
+        assertTrue(new JavaValueSerializer().serialize(42L).length > 9);
+    }
+
+    @Test
+    public void compactSerializerShouldUseTheCodecsRegisteredInTheProperties() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("cache.serializer", "compact");
+        props.setProperty("cache.serializer.codec." + Point.class.getName(), PointCodec.class.getName());
+        ValueSerializer serializer = ValueSerializer.create(props);
+        byte[] data = serializer.serialize(new Point(3, 4));
+
+        assertEquals(1 + 2 + Point.class.getName().length() + 8, data.length);
+        assertEquals(new Point(3, 4), serializer.deserialize(data));
+    }
+
+    @Test
+    public void createShouldThrowAnExceptionForAnUnknownCodec() {
+        Properties props = new Properties();
+        props.setProperty("cache.serializer", "compact");
+        props.setProperty("cache.serializer.codec." + Point.class.getName(), "auskov.MissingCodec");
+        try {
+            ValueSerializer.create(props);
+        } catch (InvalidPropertiesFormatException e) {
+            assertEquals("Unknown value codec: auskov.MissingCodec", e.getMessage());
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void rawSerializerShouldPassByteArraysThroughAndRejectOtherValues() throws Exception {
+        RawValueSerializer serializer = new RawValueSerializer();
+        byte[] data = {1, 2, 3};
+        assertSame(data, serializer.serialize(data));
+        assertSame(data, serializer.deserialize(data));
+        try {
+            serializer.serialize("An object");
+        } catch (NotSerializableException e) {
+            return;
+        }
+        fail();
+    }
+
+    @Test
+    public void sameFormatShouldDependOnTheSettingsAndNotOnTheInstance() {
+        CompactValueSerializer withCodec = new CompactValueSerializer();
+        withCodec.register(Point.class, new PointCodec());
+        CompactValueSerializer withSameCodec = new CompactValueSerializer();
+        withSameCodec.register(Point.class, new PointCodec());
+
+        assertTrue(new JavaValueSerializer().hasSameFormat(new JavaValueSerializer()));
+        assertTrue(new RawValueSerializer().hasSameFormat(new RawValueSerializer()));
+        assertTrue(withCodec.hasSameFormat(withSameCodec));
+        assertFalse(withCodec.hasSameFormat(new CompactValueSerializer()));
+        assertFalse(new CompactValueSerializer().hasSameFormat(new JavaValueSerializer()));
+        assertTrue(new CompressingValueSerializer(new JavaValueSerializer(), 10, 1)
+                .hasSameFormat(new CompressingValueSerializer(new JavaValueSerializer(), 100, 9)));
+        assertFalse(new CompressingValueSerializer(new JavaValueSerializer(), 10, 1)
+                .hasSameFormat(new JavaValueSerializer()));
+    }
+
+    @Test
+    public void offHeapTierShouldNotTransferTheStoredBytesToAUserOfOtherCodecs() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("cache.size.offheap.bytes", "65536");
+        props.setProperty("cache.serializer", "compact");
+        props.setProperty("cache.serializer.codec." + Point.class.getName(), PointCodec.class.getName());
+        CacheTier cacheTier = new CacheTierOffHeap(props);
+        cacheTier.put(1, new Point(1, 2));
+        CompactValueSerializer withoutCodecs = new CompactValueSerializer();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        cacheTier.transferValue(1, Channels.newChannel(bytes), withoutCodecs);
+        assertEquals(new Point(1, 2), withoutCodecs.deserialize(bytes.toByteArray()));
+        cacheTier.close();
+    }
+
+    @Test
+    public void filesystemTierShouldStoreValuesWithTheConfiguredSerializer() throws Exception {
+        for (String engine : new String[]{"files", "segments"}) {
+            Properties props = new Properties();
+            props.setProperty("cache.size.filesystem.bytes", "100000");
+            props.setProperty("cache.filesystem.storage.path", ".");
+            props.setProperty("cache.filesystem.engine", engine);
+            props.setProperty("cache.serializer", "raw");
+            try (CacheTierFilesystem cacheTier = new CacheTierFilesystem(props)) {
+                cacheTier.put(1, new byte[]{1, 2, 3});
+                cacheTier.put(2, "An object");
+
+                assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) cacheTier.get(1));
+                assertFalse(cacheTier.containsKey(2));
+            }
+        }
+    }
+}